@@ -0,0 +1,148 @@
+package code;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * generates deterministic sets of files for benchmarks:
+ * the same kind and seed always give the same names, sizes and contents
+ */
+public final class CorpusGenerator {
+
+    /**
+     * kinds of file sets that stress different parts of archiver
+     */
+    public enum Kind {
+        /** many small text files: per-entry overhead */
+        TINY_FILES,
+        /** a few big text files: deflate throughput */
+        HUGE_FILES,
+        /** already compressed files (random data with media extensions) */
+        MEDIA,
+        /** deep tree of folders with small files: walking the tree */
+        DEEP_TREE
+    }
+
+    public static final long DEFAULT_SEED = 42;
+
+    static final int TINY_FILE_COUNT = 20_000;
+    static final int TINY_FILES_PER_DIR = 500;
+    static final int TINY_MAX_SIZE = 4 * 1024;
+    static final int HUGE_FILE_COUNT = 2;
+    static final long HUGE_FILE_SIZE = 256L * 1024 * 1024;
+    static final int MEDIA_FILE_COUNT = 64;
+    static final int MEDIA_FILE_SIZE = 4 * 1024 * 1024;
+    static final int DEEP_TREE_DEPTH = 64;
+    static final int DEEP_TREE_FILES_PER_DIR = 16;
+
+    private static final String[] WORDS = {
+            "archive", "entry", "deflate", "inflate", "header", "central", "directory", "buffer", "stream",
+            "channel", "thread", "pool", "file", "folder", "size", "crc", "offset", "local", "data", "zip",
+            "the", "of", "and", "to", "in", "is", "for", "with", "on", "as", "at", "by", "from", "this"};
+    private static final String[] MEDIA_EXTENSIONS = {"png", "jpg", "mp3", "mp4"};
+    private static final String MARKER = ".corpus-complete";
+
+    private CorpusGenerator() {
+    }
+
+    /**
+     * returns folder with corpus of given kind under build/jmh-corpus, generating it when it doesn't exist yet
+     */
+    public static Path prepare(Kind kind) throws IOException {
+        Path dir = Paths.get("build", "jmh-corpus", kind.name().toLowerCase() + "-" + DEFAULT_SEED).toAbsolutePath();
+        if (!Files.exists(dir.resolve(MARKER))) generate(kind, dir, DEFAULT_SEED);
+        return dir.resolve("corpus");
+    }
+
+    /**
+     * generates corpus in dir/corpus
+     */
+    public static void generate(Kind kind, Path dir, long seed) throws IOException {
+        Random random = new Random(seed);
+        Path root = dir.resolve("corpus");
+        Files.createDirectories(root);
+        switch (kind) {
+            case TINY_FILES:
+                for (int i = 0; i < TINY_FILE_COUNT; i++) {
+                    Path sub = Files.createDirectories(root.resolve("d" + i / TINY_FILES_PER_DIR));
+                    writeText(random, sub.resolve("f" + i + ".txt"), 1 + random.nextInt(TINY_MAX_SIZE));
+                }
+                break;
+            case HUGE_FILES:
+                for (int i = 0; i < HUGE_FILE_COUNT; i++) {
+                    writeText(random, root.resolve("huge" + i + ".log"), HUGE_FILE_SIZE);
+                }
+                break;
+            case MEDIA:
+                for (int i = 0; i < MEDIA_FILE_COUNT; i++) {
+                    String extension = MEDIA_EXTENSIONS[i % MEDIA_EXTENSIONS.length];
+                    writeRandom(random, root.resolve("media" + i + "." + extension), MEDIA_FILE_SIZE);
+                }
+                break;
+            case DEEP_TREE:
+                Path level = root;
+                for (int depth = 0; depth < DEEP_TREE_DEPTH; depth++) {
+                    level = Files.createDirectories(level.resolve("level" + depth));
+                    Files.createDirectories(level.resolve("empty"));
+                    for (int i = 0; i < DEEP_TREE_FILES_PER_DIR; i++) {
+                        writeText(random, level.resolve("f" + i + ".txt"), 1 + random.nextInt(TINY_MAX_SIZE));
+                    }
+                }
+                break;
+        }
+        Files.createFile(dir.resolve(MARKER));
+    }
+
+    /**
+     * writes compressible text made of random words
+     */
+    private static void writeText(Random random, Path file, long size) throws IOException {
+        byte[] line = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            long written = 0;
+            while (written < size) {
+                int length = 0;
+                while (length < line.length - 16) {
+                    byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes(StandardCharsets.US_ASCII);
+                    System.arraycopy(word, 0, line, length, word.length);
+                    length += word.length;
+                    line[length++] = (byte) (random.nextInt(12) == 0 ? '\n' : ' ');
+                }
+                int n = (int) Math.min(length, size - written);
+                out.write(line, 0, n);
+                written += n;
+            }
+        }
+    }
+
+    /**
+     * writes incompressible random data
+     */
+    private static void writeRandom(Random random, Path file, long size) throws IOException {
+        byte[] bytes = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            long written = 0;
+            while (written < size) {
+                random.nextBytes(bytes);
+                int n = (int) Math.min(bytes.length, size - written);
+                out.write(bytes, 0, n);
+                written += n;
+            }
+        }
+    }
+
+    /**
+     * generates corpus from command line: kind, target folder and optional seed
+     */
+    public static void main(String[] args) throws IOException {
+        Kind kind = Kind.valueOf(args[0]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+        generate(kind, Paths.get(args[1]), seed);
+    }
+
+}
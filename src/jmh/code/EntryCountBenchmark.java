@@ -0,0 +1,54 @@
+package code;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * heap used by archive writer after adding many entries, right before central directory is written:
+ * it should stay flat as number of entries grows, because central directory records are moved to temporary file
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EntryCountBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int entryCount;
+
+    private Path archive;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        archive = Files.createTempFile("entry-count", ".zip");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(archive);
+    }
+
+    @Benchmark
+    public void writeEntries(HeapUsage heap) throws IOException {
+        long time = System.currentTimeMillis();
+        try (ZipWriter writer = new ZipWriter(archive, new ArchiveMetrics(), false)) {
+            for (int i = 0; i < entryCount; i++) {
+                writer.writeEntry(CompressedEntry.directory("dir" + i / 1000 + "/entry" + i + "/", time));
+            }
+            heap.measure();
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package code;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * cost of writing entry headers and central directory records, with almost no data to compress
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EntryOverheadBenchmark {
+
+    @Param({"10000"})
+    public int entryCount;
+
+    private Path archive;
+    private long crc;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        archive = Files.createTempFile("entry-overhead", ".zip");
+        CRC32 crc32 = new CRC32();
+        crc32.update(new byte[]{'x'});
+        crc = crc32.getValue();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(archive);
+    }
+
+    @Benchmark
+    public void writeEntries(Throughput throughput) throws IOException {
+        long time = System.currentTimeMillis();
+        try (ZipWriter writer = new ZipWriter(archive, new ArchiveMetrics(), false)) {
+            for (int i = 0; i < entryCount; i++) {
+                SpillBuffer data = new SpillBuffer(EntryCompressor.SPILL_THRESHOLD);
+                data.write('x');
+                writer.writeEntry(new CompressedEntry("dir/entry" + i + ".txt", ZipEntry.STORED, crc, 1, 1,
+                        ZipFormat.javaToDosTime(time), data));
+            }
+        }
+        throughput.add(entryCount, entryCount);
+    }
+
+}
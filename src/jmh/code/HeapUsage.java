@@ -0,0 +1,30 @@
+package code;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * secondary benchmark result: heap used after garbage collection at the moment it is measured
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class HeapUsage {
+
+    public long usedKilobytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        usedKilobytes = 0;
+    }
+
+    void measure() {
+        System.gc();
+        usedKilobytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1024;
+    }
+
+}
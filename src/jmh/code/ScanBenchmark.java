@@ -0,0 +1,48 @@
+package code;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * walking of file trees before compression
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScanBenchmark {
+
+    @Param({"TINY_FILES", "DEEP_TREE"})
+    public CorpusGenerator.Kind corpus;
+
+    private List<File> roots;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        roots = List.of(CorpusGenerator.prepare(corpus).toFile());
+    }
+
+    @Benchmark
+    public void scan(Throughput throughput, Blackhole blackhole) throws IOException {
+        FileTreeScanner scanner = new FileTreeScanner();
+        long[] entries = new long[1];
+        scanner.scan(roots, file -> {
+            blackhole.consume(file);
+            entries[0]++;
+        });
+        throughput.add(scanner.getTotalSize(), entries[0]);
+    }
+
+}
@@ -0,0 +1,31 @@
+package code;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * secondary benchmark results: megabytes and entries processed,
+ * reported by JMH per second next to operations per second
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+
+    public double megabytes;
+    public long entries;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        megabytes = 0;
+        entries = 0;
+    }
+
+    void add(long bytes, long entryCount) {
+        megabytes += bytes / (1024.0 * 1024.0);
+        entries += entryCount;
+    }
+
+}
@@ -0,0 +1,72 @@
+package code;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * extraction and testing (-t) of archives made from every corpus kind, single-threaded and parallel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UnzipBenchmark {
+
+    @Param({"TINY_FILES", "HUGE_FILES", "MEDIA", "DEEP_TREE"})
+    public CorpusGenerator.Kind corpus;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path work;
+    private Path archive;
+    private Path output;
+    private long[] totals;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path input = CorpusGenerator.prepare(corpus);
+        work = Files.createTempDirectory("unzip-benchmark");
+        archive = work.resolve("bench.zip");
+        try (ArchiveWriter writer = new ArchiveWriter(archive,
+                new ArchiveOptions().threads(Runtime.getRuntime().availableProcessors()))) {
+            writer.add(input);
+        }
+        output = Files.createDirectory(work.resolve("out"));
+        totals = Benchmarks.measure(input);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Benchmarks.deleteTree(work);
+    }
+
+    @Benchmark
+    public void unzip(Throughput throughput) throws IOException {
+        try (ArchiveReader reader = ArchiveReader.open(archive)) {
+            reader.extractTo(output, new ArchiveOptions().threads(threads));
+        }
+        throughput.add(totals[0], totals[1]);
+    }
+
+    @Benchmark
+    public void test(Throughput throughput) throws IOException {
+        try (ArchiveReader reader = ArchiveReader.open(archive)) {
+            reader.test(new ArchiveOptions().threads(threads));
+        }
+        throughput.add(totals[0], totals[1]);
+    }
+
+}
@@ -0,0 +1,64 @@
+package code;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * archiving of every corpus kind, single-threaded and parallel, with and without reading ahead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ZipBenchmark {
+
+    @Param({"TINY_FILES", "HUGE_FILES", "MEDIA", "DEEP_TREE"})
+    public CorpusGenerator.Kind corpus;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    /**
+     * number of files read ahead of compression, 0 - files are read by compression
+     */
+    @Param({"0", "8"})
+    public int readAhead;
+
+    private Path input;
+    private Path output;
+    private long[] totals;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        input = CorpusGenerator.prepare(corpus);
+        output = Files.createTempDirectory("zip-benchmark");
+        totals = Benchmarks.measure(input);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Benchmarks.deleteTree(output);
+    }
+
+    @Benchmark
+    public void zip(Throughput throughput) throws IOException {
+        ArchiveOptions options = new ArchiveOptions().threads(threads).readAhead(readAhead);
+        try (ArchiveWriter writer = new ArchiveWriter(output.resolve("bench.zip"), options)) {
+            writer.add(input);
+        }
+        throughput.add(totals[0], totals[1]);
+    }
+
+}
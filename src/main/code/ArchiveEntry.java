@@ -0,0 +1,79 @@
+package code;
+
+/**
+ * entry of archive as it is described in central directory
+ */
+public final class ArchiveEntry {
+
+    final String name;
+    final int method;
+    final int flags;
+    final long crc;
+    final long compressedSize;
+    final long size;
+    final long dosTime;
+    final long localHeaderOffset;
+    /**
+     * bytes of name which is not flagged as utf-8 and is not ascii, name decoded from them may differ,
+     * so they are copied as is when entry is merged; otherwise null
+     */
+    final byte[] rawName;
+
+    ArchiveEntry(String name, int method, int flags, long crc, long compressedSize, long size, long dosTime,
+                 long localHeaderOffset) {
+        this(name, method, flags, crc, compressedSize, size, dosTime, localHeaderOffset, null);
+    }
+
+    ArchiveEntry(String name, int method, int flags, long crc, long compressedSize, long size, long dosTime,
+                 long localHeaderOffset, byte[] rawName) {
+        this.name = name;
+        this.method = method;
+        this.flags = flags;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.dosTime = dosTime;
+        this.localHeaderOffset = localHeaderOffset;
+        this.rawName = rawName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * returns ZipEntry.STORED or ZipEntry.DEFLATED (or other method number of foreign archives)
+     */
+    public int getMethod() {
+        return method;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * returns modification time in milliseconds
+     */
+    public long getLastModified() {
+        return ZipFormat.dosToJavaTime(dosTime);
+    }
+
+    public boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
@@ -0,0 +1,60 @@
+package code;
+
+/**
+ * receives progress of archiving and unpacking, methods are called by thread that adds or unpacks entries
+ * before entry is processed (results of testing are reported after entries are tested)
+ */
+public interface ArchiveListener {
+
+    /**
+     * listener that ignores everything
+     */
+    ArchiveListener NONE = new ArchiveListener() {
+    };
+
+    /**
+     * file or folder is going to be compressed and added to archive
+     */
+    default void adding(String name) {
+    }
+
+    /**
+     * unchanged entry is going to be copied from archive being updated
+     */
+    default void copying(String name) {
+    }
+
+    /**
+     * entry is going to be copied from merged archive
+     */
+    default void merging(String name) {
+    }
+
+    /**
+     * entries are selected for unpacking by include / exclude patterns
+     * @param selected - number of selected entries
+     * @param total - number of entries in archive
+     */
+    default void selected(int selected, int total) {
+    }
+
+    /**
+     * entry is going to be unpacked
+     */
+    default void extracting(String name) {
+    }
+
+    /**
+     * entry is not unpacked as its file is up to date (sync extraction)
+     */
+    default void skipping(String name) {
+    }
+
+    /**
+     * entry is tested, results are reported in the order of entries
+     * @param error - description of error or null if entry is correct
+     */
+    default void tested(String name, String error) {
+    }
+
+}
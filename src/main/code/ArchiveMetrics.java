@@ -0,0 +1,232 @@
+package code;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * counts entries and bytes and sums time of every phase of archiving and unpacking;
+ * can be updated from several threads and shared by several archives, then it sums all of them.
+ * Phase times are summed over all threads, so with several threads their sum can exceed elapsed time
+ */
+public final class ArchiveMetrics {
+
+    public enum Phase {
+        /**
+         * walking files to zip / reading central directory and creating folders
+         */
+        SCAN,
+        /**
+         * reading and deflating files
+         */
+        COMPRESS,
+        /**
+         * reading and inflating entries
+         */
+        DECOMPRESS,
+        /**
+         * writing archive / unpacked files
+         */
+        WRITE,
+        /**
+         * forcing written data to disk
+         */
+        FSYNC
+    }
+
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder size = new LongAdder();
+    private final LongAdder compressedSize = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder elapsed = new LongAdder();
+    private final LongAdder[] phases = new LongAdder[Phase.values().length];
+    /**
+     * number of entries deflated with every level
+     */
+    private final LongAdder[] levels = new LongAdder[Deflater.BEST_COMPRESSION + 1];
+
+    public ArchiveMetrics() {
+        for (int i = 0; i < phases.length; i++) phases[i] = new LongAdder();
+        for (int i = 0; i < levels.length; i++) levels[i] = new LongAdder();
+    }
+
+    /**
+     * counts entry added to archive or unpacked from it
+     */
+    void addEntry(long size, long compressedSize) {
+        entries.increment();
+        this.size.add(size);
+        this.compressedSize.add(compressedSize);
+    }
+
+    void addRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    void addWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    /**
+     * counts file which deflated data was taken from payload cache
+     */
+    void addCacheHit() {
+        cacheHits.increment();
+    }
+
+    /**
+     * counts file which was deflated and added to payload cache
+     */
+    void addCacheMiss() {
+        cacheMisses.increment();
+    }
+
+    /**
+     * counts entry deflated with given level
+     */
+    void addLevel(int level) {
+        levels[level].increment();
+    }
+
+    void addTime(Phase phase, long nanos) {
+        phases[phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * adds wall time of whole archiving or unpacking
+     */
+    void addElapsed(long nanos) {
+        elapsed.add(nanos);
+    }
+
+    public long getEntries() {
+        return entries.sum();
+    }
+
+    /**
+     * returns bytes read from files to zip / from archive
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * returns bytes written to archive / to unpacked files
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * returns total uncompressed size of entries
+     */
+    public long getSize() {
+        return size.sum();
+    }
+
+    /**
+     * returns total compressed size of entries
+     */
+    public long getCompressedSize() {
+        return compressedSize.sum();
+    }
+
+    /**
+     * returns compressed size divided by uncompressed size of entries, 1 when there is no data
+     */
+    public double getCompressionRatio() {
+        long size = getSize();
+        return size == 0 ? 1 : (double) getCompressedSize() / size;
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * returns number of entries deflated with given level (0 - 9)
+     */
+    public long getLevelEntries(int level) {
+        return levels[level].sum();
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsed.sum());
+    }
+
+    public long getPhaseMillis(Phase phase) {
+        return TimeUnit.NANOSECONDS.toMillis(phases[phase.ordinal()].sum());
+    }
+
+    public double getEntriesPerSecond() {
+        return perSecond(getEntries());
+    }
+
+    /**
+     * returns uncompressed megabytes of entries per second
+     */
+    public double getMegabytesPerSecond() {
+        return perSecond(getSize()) / (1024 * 1024);
+    }
+
+    /**
+     * returns summary of metrics as json object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append(String.format(Locale.ROOT, "  \"entries\": %d,%n", getEntries()));
+        json.append(String.format(Locale.ROOT, "  \"bytesRead\": %d,%n", getBytesRead()));
+        json.append(String.format(Locale.ROOT, "  \"bytesWritten\": %d,%n", getBytesWritten()));
+        json.append(String.format(Locale.ROOT, "  \"size\": %d,%n", getSize()));
+        json.append(String.format(Locale.ROOT, "  \"compressedSize\": %d,%n", getCompressedSize()));
+        json.append(String.format(Locale.ROOT, "  \"compressionRatio\": %.4f,%n", getCompressionRatio()));
+        json.append(String.format(Locale.ROOT, "  \"cacheHits\": %d,%n", getCacheHits()));
+        json.append(String.format(Locale.ROOT, "  \"cacheMisses\": %d,%n", getCacheMisses()));
+        json.append(String.format(Locale.ROOT, "  \"elapsedMillis\": %d,%n", getElapsedMillis()));
+        json.append(String.format(Locale.ROOT, "  \"entriesPerSecond\": %.1f,%n", getEntriesPerSecond()));
+        json.append(String.format(Locale.ROOT, "  \"megabytesPerSecond\": %.2f,%n", getMegabytesPerSecond()));
+        json.append("  \"levelEntries\": {");
+        String separator = "";
+        for (int level = 0; level < levels.length; level++) {
+            if (getLevelEntries(level) == 0) continue;
+            json.append(String.format(Locale.ROOT, "%s%n    \"%d\": %d", separator, level, getLevelEntries(level)));
+            separator = ",";
+        }
+        json.append(String.format("%n  },%n"));
+        json.append("  \"phaseMillis\": {");
+        for (Phase phase : Phase.values()) {
+            json.append(String.format(Locale.ROOT, "%s%n    \"%s\": %d", phase.ordinal() == 0 ? "" : ",",
+                    phase.name().toLowerCase(Locale.ROOT), getPhaseMillis(phase)));
+        }
+        return json.append(String.format("%n  }%n}%n")).toString();
+    }
+
+    /**
+     * writes json summary to file
+     */
+    public void writeReport(Path report) throws IOException {
+        try {
+            Files.writeString(report, toJson(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IOException("Exception while writing report: " + report + "\n" + e.getMessage(), e);
+        }
+    }
+
+    private double perSecond(long count) {
+        long nanos = elapsed.sum();
+        return nanos == 0 ? 0 : count * 1e9 / nanos;
+    }
+
+}
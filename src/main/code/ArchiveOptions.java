@@ -0,0 +1,266 @@
+package code;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * options of {@link ArchiveWriter} and {@link ArchiveReader}, every setter returns this options
+ */
+public final class ArchiveOptions {
+
+    private int threads = 1;
+    private boolean update;
+    private boolean compareCrc;
+    private boolean verifyCrc = true;
+    private final List<String> includes = new ArrayList<>();
+    private final List<String> excludes = new ArrayList<>();
+    private ArchiveListener listener = ArchiveListener.NONE;
+    private ArchiveMetrics metrics = new ArchiveMetrics();
+    private boolean fsync;
+    private Path cacheDir;
+    private long cacheSize;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private int strategy = Deflater.DEFAULT_STRATEGY;
+    private double targetMbps;
+    private int readAhead;
+    private boolean sync;
+    private boolean preallocate;
+    private DuplicatePolicy duplicates = DuplicatePolicy.FAIL;
+
+    /**
+     * number of threads compressing files in parallel / unpacking entries in parallel
+     */
+    public ArchiveOptions threads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Wrong input: number of threads must be positive");
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * update existing archive: unchanged files are copied from it without recompression
+     */
+    public ArchiveOptions update(boolean update) {
+        this.update = update;
+        return this;
+    }
+
+    /**
+     * compare crc of files in addition to size and modification time when checking if file is unchanged
+     * (when updating archive or syncing extracted files)
+     */
+    public ArchiveOptions compareCrc(boolean compareCrc) {
+        this.compareCrc = compareCrc;
+        return this;
+    }
+
+    /**
+     * sync extraction: files which have size and modification time of their entries (and crc with compareCrc option)
+     * are not unpacked again; with compareCrc unpacked entries are journaled, so interrupted extraction does not
+     * compute crc of files unpacked before
+     */
+    public ArchiveOptions sync(boolean sync) {
+        this.sync = sync;
+        return this;
+    }
+
+    /**
+     * set length of every unpacked file to size of its entry before its data is written,
+     * so file is not extended by every write; disk space is not reserved by it (file is sparse until it is written),
+     * so full disk is still found when data is written
+     */
+    public ArchiveOptions preallocate(boolean preallocate) {
+        this.preallocate = preallocate;
+        return this;
+    }
+
+    /**
+     * verify crc of unpacked entries
+     */
+    public ArchiveOptions verifyCrc(boolean verifyCrc) {
+        this.verifyCrc = verifyCrc;
+        return this;
+    }
+
+    /**
+     * unpack only entries matching pattern (glob or "regex:..."), can be called several times
+     */
+    public ArchiveOptions include(String pattern) {
+        includes.add(pattern);
+        return this;
+    }
+
+    /**
+     * don't unpack entries matching pattern (glob or "regex:..."), can be called several times
+     */
+    public ArchiveOptions exclude(String pattern) {
+        excludes.add(pattern);
+        return this;
+    }
+
+    public ArchiveOptions listener(ArchiveListener listener) {
+        this.listener = listener == null ? ArchiveListener.NONE : listener;
+        return this;
+    }
+
+    /**
+     * metrics updated by every archive using these options
+     */
+    public ArchiveOptions metrics(ArchiveMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * force archive / unpacked files to disk before closing them
+     */
+    public ArchiveOptions fsync(boolean fsync) {
+        this.fsync = fsync;
+        return this;
+    }
+
+    /**
+     * keep deflated data of files in folder shared by archives and processes,
+     * so files that were already deflated are not deflated again
+     * @param dir - cache folder
+     * @param maxSize - size of cache in bytes, least recently used data is deleted when archive is closed
+     */
+    public ArchiveOptions cache(Path dir, long maxSize) {
+        if (maxSize < 0) throw new IllegalArgumentException("Wrong input: cache size must not be negative");
+        this.cacheDir = dir;
+        this.cacheSize = maxSize;
+        return this;
+    }
+
+    /**
+     * deflate level of entries: 1 (fastest) - 9 (best compression), 0 - no compression, -1 - default
+     */
+    public ArchiveOptions level(int level) {
+        new DeflateSettings(level, strategy); // validates level
+        this.level = level;
+        return this;
+    }
+
+    /**
+     * deflate strategy of entries: Deflater.DEFAULT_STRATEGY, FILTERED or HUFFMAN_ONLY
+     */
+    public ArchiveOptions strategy(int strategy) {
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED
+                && strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("Wrong input: unknown compression strategy: " + strategy);
+        }
+        this.strategy = strategy;
+        return this;
+    }
+
+    /**
+     * adaptive level: level is changed from entry to entry to keep throughput of zipping near target
+     * with the best compression, level option is the initial level
+     * @param targetMbps - target in megabytes per second, 0 for fixed level
+     */
+    public ArchiveOptions targetMbps(double targetMbps) {
+        if (!(targetMbps >= 0)) {
+            throw new IllegalArgumentException("Wrong input: target throughput must not be negative");
+        }
+        this.targetMbps = targetMbps;
+        return this;
+    }
+
+    /**
+     * number of files read ahead of compression by separate threads, so storage is read while files are compressed;
+     * about a megabyte of memory is used per file, 0 (default) - files are read by compression
+     */
+    public ArchiveOptions readAhead(int files) {
+        if (files < 0) {
+            throw new IllegalArgumentException("Wrong input: number of files read ahead must not be negative");
+        }
+        this.readAhead = files;
+        return this;
+    }
+
+    /**
+     * what is done with entries of the same name when archives are merged, merging fails by default
+     */
+    public ArchiveOptions duplicates(DuplicatePolicy policy) {
+        this.duplicates = policy;
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public boolean isUpdate() {
+        return update;
+    }
+
+    public boolean isCompareCrc() {
+        return compareCrc;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+
+    public boolean isPreallocate() {
+        return preallocate;
+    }
+
+    public boolean isVerifyCrc() {
+        return verifyCrc;
+    }
+
+    public List<String> getIncludes() {
+        return Collections.unmodifiableList(includes);
+    }
+
+    public List<String> getExcludes() {
+        return Collections.unmodifiableList(excludes);
+    }
+
+    public ArchiveListener getListener() {
+        return listener;
+    }
+
+    public ArchiveMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isFsync() {
+        return fsync;
+    }
+
+    /**
+     * returns cache folder or null if cache is not used
+     */
+    public Path getCacheDir() {
+        return cacheDir;
+    }
+
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getStrategy() {
+        return strategy;
+    }
+
+    public double getTargetMbps() {
+        return targetMbps;
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    public DuplicatePolicy getDuplicates() {
+        return duplicates;
+    }
+
+}
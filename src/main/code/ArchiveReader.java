@@ -0,0 +1,382 @@
+package code;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * reads zip archive from file: entries are found by central directory, data of every entry is read by its offset,
+ * so single entries can be read without reading the whole archive; archive can also be unpacked from stream.
+ * Data of different entries can be read from several threads at the same time
+ */
+public class ArchiveReader implements Closeable {
+
+    private final ZipIndex index;
+    private final Path archive;
+
+    private ArchiveReader(ZipIndex index, Path archive) {
+        this.index = index;
+        this.archive = archive;
+    }
+
+    /**
+     * opens archive and reads its central directory
+     */
+    public static ArchiveReader open(Path archive) throws IOException {
+        return new ArchiveReader(ZipIndex.open(archive), archive);
+    }
+
+    /**
+     * returns entries in the order of central directory
+     */
+    public List<ArchiveEntry> entries() {
+        return index.entries();
+    }
+
+    /**
+     * returns entry with given name or null if there is no such entry
+     */
+    public ArchiveEntry getEntry(String name) {
+        return index.getEntry(name);
+    }
+
+    /**
+     * returns stream of uncompressed data of entry
+     */
+    public InputStream getInputStream(ArchiveEntry entry) throws IOException {
+        return index.getInputStream(entry);
+    }
+
+    /**
+     * returns stream of uncompressed data of entry with given name
+     */
+    public InputStream getInputStream(String name) throws IOException {
+        return index.getInputStream(name);
+    }
+
+    /**
+     * unpacks archive to the destination folder:
+     * names of selected entries are checked and all their folders are created first,
+     * then every selected entry is read by its offset and unpacked (by one of the threads if options allow);
+     * only data of selected entries is read. Of entries unpacked to the same file only the last one is unpacked,
+     * as it would overwrite the others anyway, so no file is written by two threads.
+     * With preallocate option final length of every file is set before it is written (space is not reserved).
+     * Unpacked files get modification time of their entries. With sync option files that are up to date
+     * are skipped; if crc is compared, unpacked entries are journaled, so interrupted extraction continues
+     * without computing crc of files unpacked before
+     * @param destDir - destination folder
+     * @return number of selected entries
+     */
+    public int extractTo(Path destDir, ArchiveOptions options) throws IOException {
+        long start = System.nanoTime();
+        ArchiveListener listener = options.getListener();
+        ArchiveMetrics metrics = options.getMetrics();
+        EntryFilter filter = new EntryFilter(options.getIncludes(), options.getExcludes());
+        Map<File, ArchiveEntry> filesToUnpack = new LinkedHashMap<>();
+        int selected = 0;
+        ExtractionPlan plan = new ExtractionPlan(destDir);
+        SyncJournal journal = options.isSync() && options.isCompareCrc() ? SyncJournal.open(destDir, archive) : null;
+        boolean finished = false;
+        ExecutorService pool = null;
+        try {
+            for (ArchiveEntry entry : index.entries()) {
+                if (!filter.accept(entry.name)) continue;
+                selected++;
+                File newFile = plan.add(entry.name, entry.isDirectory()).toFile();
+                if (!entry.isDirectory()) filesToUnpack.put(newFile, entry); // the last duplicate wins
+            }
+            if (options.isSync()) {
+                for (Iterator<Map.Entry<File, ArchiveEntry>> it = filesToUnpack.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<File, ArchiveEntry> e = it.next();
+                    if (!isUpToDate(e.getValue(), e.getKey(), journal, options.isCompareCrc())) continue;
+                    listener.skipping(e.getValue().name);
+                    it.remove();
+                }
+            }
+            plan.createDirectories();
+            metrics.addTime(ArchiveMetrics.Phase.SCAN, System.nanoTime() - start);
+            if (!filter.acceptsAll()) listener.selected(selected, index.entries().size());
+            pool = options.getThreads() > 1 ? Executors.newFixedThreadPool(options.getThreads()) : null;
+            List<Future<?>> futures = new ArrayList<>();
+            for (Map.Entry<File, ArchiveEntry> e : filesToUnpack.entrySet()) {
+                listener.extracting(e.getValue().name);
+                if (pool == null) {
+                    unpackEntry(e.getValue(), e.getKey(), options, journal);
+                    continue;
+                }
+                futures.add(pool.submit(() -> {
+                    unpackEntry(e.getValue(), e.getKey(), options, journal);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while unzipping");
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+                    throw new IOException(ex.getCause().getMessage(), ex.getCause());
+                }
+            }
+            finished = true;
+        } finally {
+            if (pool != null) pool.shutdownNow();
+            if (journal != null && finished) journal.finish();
+            else if (journal != null) journal.close();
+            metrics.addElapsed(System.nanoTime() - start);
+        }
+        return selected;
+    }
+
+    /**
+     * tests archive without writing anything: every selected entry is inflated (by one of the threads if options
+     * allow) and its crc and sizes are compared with ones stored in archive, result of every entry is reported
+     * to listener
+     * @return number of entries with errors
+     */
+    public int test(ArchiveOptions options) throws IOException {
+        long start = System.nanoTime();
+        ArchiveListener listener = options.getListener();
+        ArchiveMetrics metrics = options.getMetrics();
+        EntryFilter filter = new EntryFilter(options.getIncludes(), options.getExcludes());
+        List<ArchiveEntry> entriesToTest = new ArrayList<>();
+        for (ArchiveEntry entry : index.entries()) {
+            if (filter.accept(entry.name)) entriesToTest.add(entry);
+        }
+        metrics.addTime(ArchiveMetrics.Phase.SCAN, System.nanoTime() - start);
+        if (!filter.acceptsAll()) listener.selected(entriesToTest.size(), index.entries().size());
+        ExecutorService pool = options.getThreads() > 1 ? Executors.newFixedThreadPool(options.getThreads()) : null;
+        int failed = 0;
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            if (pool != null) {
+                for (ArchiveEntry entry : entriesToTest) results.add(pool.submit(() -> testEntry(entry, metrics)));
+            }
+            for (int i = 0; i < entriesToTest.size(); i++) {
+                ArchiveEntry entry = entriesToTest.get(i);
+                String error;
+                if (pool == null) {
+                    error = testEntry(entry, metrics);
+                } else {
+                    try {
+                        error = results.get(i).get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while testing");
+                    } catch (ExecutionException e) {
+                        error = e.getCause() + ": " + entry.name;
+                    }
+                }
+                if (error != null) failed++;
+                listener.tested(entry.name, error);
+            }
+        } finally {
+            if (pool != null) pool.shutdownNow();
+            metrics.addElapsed(System.nanoTime() - start);
+        }
+        return failed;
+    }
+
+    /**
+     * unpacks archive read from stream to the destination folder entry by entry, in one thread;
+     * stream is not closed
+     * @param destDir - destination folder
+     * @return number of selected entries
+     */
+    public static int extract(InputStream in, Path destDir, ArchiveOptions options) throws IOException {
+        long start = System.nanoTime();
+        ArchiveListener listener = options.getListener();
+        ArchiveMetrics metrics = options.getMetrics();
+        EntryFilter filter = new EntryFilter(options.getIncludes(), options.getExcludes());
+        ZipInputStream zis = new ZipInputStream(in);
+        ExtractionPlan plan = new ExtractionPlan(destDir);
+        byte[] buffer = CodecPool.buffer();
+        int selected = 0;
+        try {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (!filter.accept(entry.getName())) continue;
+                selected++;
+                File newFile = plan.add(entry.getName(), entry.isDirectory()).toFile();
+                plan.createDirectories();
+                if (entry.isDirectory()) continue;
+                listener.extracting(entry.getName());
+                EntryEvent event = new EntryEvent();
+                event.begin();
+                long size = copy(zis, newFile, 0, buffer, options); // crc is checked by stream
+                if (entry.getTime() != -1 && !newFile.setLastModified(entry.getTime())) {
+                    throw new IOException("Failed to set modification time: " + newFile);
+                }
+                metrics.addEntry(size, entry.getCompressedSize());
+                metrics.addRead(entry.getCompressedSize());
+                event.record(EntryEvent.EXTRACT, entry.getName(), size, entry.getCompressedSize());
+            }
+        } finally {
+            CodecPool.release(buffer);
+            metrics.addElapsed(System.nanoTime() - start);
+        }
+        return selected;
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+
+    /**
+     * unpacks single entry and checks its crc;
+     * big stored entries are copied from archive to file by the kernel, without copying them to java heap
+     */
+    private void unpackEntry(ArchiveEntry entry, File newFile, ArchiveOptions options, SyncJournal journal)
+            throws IOException {
+        ArchiveMetrics metrics = options.getMetrics();
+        EntryEvent event = new EntryEvent();
+        event.begin();
+        if (entry.method == ZipEntry.STORED && entry.size >= ZipIndex.MAP_THRESHOLD) {
+            try (FileChannel out = open(newFile, options.isPreallocate() ? entry.size : 0)) {
+                long start = System.nanoTime();
+                index.transferStored(entry, out, options.isVerifyCrc());
+                metrics.addTime(ArchiveMetrics.Phase.WRITE, System.nanoTime() - start);
+                metrics.addWritten(entry.size);
+                if (options.isFsync()) force(out, metrics);
+            }
+        } else {
+            byte[] buffer = CodecPool.buffer();
+            CRC32 crc = new CRC32();
+            try (InputStream in = new CheckedInputStream(index.getInputStream(entry), crc)) {
+                copy(in, newFile, options.isPreallocate() ? entry.size : 0, buffer, options);
+            } finally {
+                CodecPool.release(buffer);
+            }
+            if (options.isVerifyCrc() && crc.getValue() != entry.crc) {
+                throw new IOException("Invalid entry CRC: " + entry.name);
+            }
+        }
+        if (!newFile.setLastModified(entry.getLastModified())) {
+            throw new IOException("Failed to set modification time: " + newFile);
+        }
+        if (journal != null) journal.unpacked(entry);
+        metrics.addEntry(entry.size, entry.compressedSize);
+        metrics.addRead(entry.compressedSize);
+        event.record(EntryEvent.EXTRACT, entry.name, entry.size, entry.compressedSize);
+    }
+
+    /**
+     * returns true if file has size and modification time of entry and, if crc is compared,
+     * if it was unpacked by interrupted extraction or has crc of entry
+     */
+    private static boolean isUpToDate(ArchiveEntry entry, File file, SyncJournal journal, boolean compareCrc)
+            throws IOException {
+        if (!file.isFile() || file.length() != entry.size) return false;
+        if (ZipFormat.javaToDosTime(file.lastModified()) != entry.dosTime) return false;
+        if (!compareCrc || journal != null && journal.isUnpacked(entry)) return true;
+        return ArchiveWriter.crcOf(file.toPath()) == entry.crc;
+    }
+
+    /**
+     * inflates entry and checks its crc and sizes
+     * @return description of error or null if entry is correct
+     */
+    private String testEntry(ArchiveEntry entry, ArchiveMetrics metrics) {
+        EntryEvent event = new EntryEvent();
+        event.begin();
+        byte[] buffer = CodecPool.buffer();
+        try {
+            if (entry.isDirectory()) {
+                if (entry.size != 0) return "Directory with data: " + entry.name;
+            } else {
+                metrics.addTime(ArchiveMetrics.Phase.DECOMPRESS, index.verify(entry, buffer));
+            }
+        } catch (IOException e) {
+            return e.getMessage() != null && e.getMessage().contains(entry.name) ? e.getMessage()
+                    : e.getMessage() + ": " + entry.name;
+        } finally {
+            CodecPool.release(buffer);
+        }
+        metrics.addEntry(entry.size, entry.compressedSize);
+        metrics.addRead(entry.compressedSize);
+        event.record(EntryEvent.TEST, entry.name, entry.size, entry.compressedSize);
+        return null;
+    }
+
+    /**
+     * opens file for writing from its beginning, file is truncated or, if it is preallocated, gets its final length;
+     * setting length doesn't allocate blocks of file on most file systems, it only saves extending file by writes
+     * @param length - length of preallocated file or 0
+     */
+    private static FileChannel open(File file, long length) throws IOException {
+        if (length == 0) {
+            return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(length);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        return out.getChannel();
+    }
+
+    /**
+     * copies uncompressed data of entry to file counting time of reading (and inflating) and writing
+     * @param length - length of preallocated file or 0, file is truncated if less data is copied
+     * @return number of copied bytes
+     */
+    private static long copy(InputStream in, File newFile, long length, byte[] buffer, ArchiveOptions options)
+            throws IOException {
+        ArchiveMetrics metrics = options.getMetrics();
+        long size = 0;
+        try (FileChannel out = open(newFile, length)) {
+            long reading = 0;
+            long writing = 0;
+            while (true) {
+                long start = System.nanoTime();
+                int len = in.read(buffer);
+                long read = System.nanoTime();
+                reading += read - start;
+                if (len < 0) break;
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, len);
+                while (data.hasRemaining()) out.write(data);
+                writing += System.nanoTime() - read;
+                size += len;
+            }
+            metrics.addTime(ArchiveMetrics.Phase.DECOMPRESS, reading);
+            metrics.addTime(ArchiveMetrics.Phase.WRITE, writing);
+            if (size < length) out.truncate(size);
+            metrics.addWritten(size);
+            if (options.isFsync()) force(out, metrics);
+        }
+        return size;
+    }
+
+    private static void force(FileChannel channel, ArchiveMetrics metrics) throws IOException {
+        long start = System.nanoTime();
+        channel.force(true);
+        metrics.addTime(ArchiveMetrics.Phase.FSYNC, System.nanoTime() - start);
+    }
+
+}
@@ -0,0 +1,538 @@
+package code;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * creates zip archive in file or in stream and adds files and streams in it;
+ * files are compressed while they are found (by several threads if options allow),
+ * entries are written in the same order as they are added.
+ * When existing archive is updated, new archive is written to temporary file which replaces it on close
+ * and gets its permissions and owner.
+ * Writer is not thread safe
+ */
+public class ArchiveWriter implements Closeable {
+
+    /**
+     * how many compressed entries per thread may wait for writing when zipping in parallel
+     */
+    private static final int ENTRIES_IN_FLIGHT_PER_THREAD = 4;
+    /**
+     * memory for data read ahead per file read ahead
+     */
+    private static final long READ_AHEAD_MEMORY_PER_FILE = 1024 * 1024;
+
+    private final ArchiveOptions options;
+    private final ArchiveListener listener;
+    private final ArchiveMetrics metrics;
+    private final long started = System.nanoTime();
+    /**
+     * absolute path to archive and to file being written, null when archive is written to stream
+     */
+    private final Path archive;
+    private final Path target;
+    private final ZipIndex previous;
+    private final ZipWriter writer;
+    private final FileTreeScanner scanner = new FileTreeScanner();
+    private final EntryMethodSelector selector = new EntryMethodSelector();
+    private final PayloadCache cache;
+    private final CompressionLevelController levels;
+    /**
+     * reads files ahead of compression, null if files are read by compression
+     */
+    private final ReadAhead readAhead;
+    private final ExecutorService pool;
+    private final Deque<Future<CompressedEntry>> pending = new ArrayDeque<>();
+    private final int maxPending;
+    private int unchangedCount;
+    private int duplicateCount;
+    /**
+     * time spent in adding files found by scanner, it is not counted as scanning time
+     */
+    private long addingNanos;
+    private boolean failed;
+    private boolean closed;
+
+    public ArchiveWriter(Path archive) throws IOException {
+        this(archive, new ArchiveOptions());
+    }
+
+    /**
+     * creates archive file or, with update option, opens existing one for updating
+     */
+    public ArchiveWriter(Path archive, ArchiveOptions options) throws IOException {
+        this.options = options;
+        this.listener = options.getListener();
+        this.metrics = options.getMetrics();
+        this.cache = options.getCacheDir() == null ? null
+                : new PayloadCache(options.getCacheDir(), options.getCacheSize());
+        this.archive = archive.toAbsolutePath().normalize();
+        this.levels = new CompressionLevelController(
+                new DeflateSettings(options.getLevel(), options.getStrategy()), options.getTargetMbps());
+        previous = options.isUpdate() && Files.exists(archive) ? ZipIndex.open(archive) : null;
+        try {
+            target = previous == null ? this.archive
+                    : Files.createTempFile(this.archive.getParent(), archive.getFileName().toString(), ".tmp");
+        } catch (IOException e) {
+            previous.close();
+            throw e;
+        }
+        try {
+            writer = new ZipWriter(previous == null ? archive : target, metrics, options.isFsync());
+        } catch (IOException e) {
+            if (previous != null) {
+                previous.close();
+                Files.deleteIfExists(target);
+            }
+            throw e;
+        }
+        pool = options.getThreads() > 1 ? Executors.newFixedThreadPool(options.getThreads()) : null;
+        readAhead = options.getReadAhead() > 0 && cache == null
+                ? new ReadAhead(options.getReadAhead(), (long) options.getReadAhead() * READ_AHEAD_MEMORY_PER_FILE)
+                : null;
+        maxPending = pool != null ? options.getThreads() * ENTRIES_IN_FLIGHT_PER_THREAD
+                : 1 + options.getReadAhead();
+    }
+
+    /**
+     * writes archive to stream, stream is closed when writer is closed;
+     * stream can't be rewound, so crc and sizes of deflated entries are written after their data
+     * and crc of stored files is calculated before they are written
+     */
+    public ArchiveWriter(OutputStream out, ArchiveOptions options) throws IOException {
+        if (options.isUpdate()) throw new IllegalArgumentException("Archive written to stream can't be updated");
+        this.options = options;
+        this.listener = options.getListener();
+        this.metrics = options.getMetrics();
+        this.cache = options.getCacheDir() == null ? null
+                : new PayloadCache(options.getCacheDir(), options.getCacheSize());
+        this.levels = new CompressionLevelController(
+                new DeflateSettings(options.getLevel(), options.getStrategy()), options.getTargetMbps());
+        archive = null;
+        target = null;
+        previous = null;
+        writer = new ZipWriter(out, metrics);
+        pool = options.getThreads() > 1 ? Executors.newFixedThreadPool(options.getThreads()) : null;
+        readAhead = options.getReadAhead() > 0 && cache == null
+                ? new ReadAhead(options.getReadAhead(), (long) options.getReadAhead() * READ_AHEAD_MEMORY_PER_FILE)
+                : null;
+        maxPending = pool != null ? options.getThreads() * ENTRIES_IN_FLIGHT_PER_THREAD
+                : 1 + options.getReadAhead();
+    }
+
+    /**
+     * returns true if existing archive is being updated
+     */
+    public boolean isUpdating() {
+        return previous != null;
+    }
+
+    /**
+     * adds files and folders with all their contents, names of entries are relative to parent of every path
+     */
+    public void add(Path... paths) throws IOException {
+        List<File> files = new ArrayList<>(paths.length);
+        for (Path path : paths) files.add(path.toFile());
+        add(files);
+    }
+
+    /**
+     * adds files and folders with all their contents, names of entries are relative to parent of every file
+     */
+    public void add(List<File> files) throws IOException {
+        checkOpen();
+        long start = System.nanoTime();
+        addingNanos = 0;
+        try {
+            scanner.scan(files, this::addFile);
+            metrics.addTime(ArchiveMetrics.Phase.SCAN, System.nanoTime() - start - addingNanos);
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * adds deflated entry with data read from stream, stream is not closed
+     * @param name - name of entry in archive
+     * @param lastModified - modification time of entry in milliseconds
+     * @param in - data of entry
+     */
+    public void addEntry(String name, long lastModified, InputStream in) throws IOException {
+        checkOpen();
+        if (name.isEmpty()) throw new IllegalArgumentException("Empty entry name");
+        try {
+            listener.adding(name);
+            EntryEvent event = new EntryEvent();
+            event.begin();
+            CompressedEntry entry;
+            if (!pending.isEmpty()) {
+                entry = EntryCompressor.compress(name, lastModified, in, levels.next(), metrics);
+                enqueue(CompletableFuture.completedFuture(entry));
+            } else {
+                OutputStream out = writer.beginEntry(name, ZipEntry.DEFLATED, lastModified, -1);
+                entry = EntryCompressor.compressTo(name, lastModified, in, levels.next(), out, metrics);
+                writer.endEntry(entry);
+                metrics.addEntry(entry.size, entry.compressedSize);
+            }
+            levels.completed(entry.size);
+            event.record(EntryEvent.COMPRESS, name, entry.size, entry.compressedSize);
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * copies entries of archives without recompression: compressed data is transferred as is
+     * and only headers are written again; entries of the same name are resolved by duplicate policy of options,
+     * folders are kept once. Archive being written can't be merged
+     */
+    public void merge(List<Path> archives) throws IOException {
+        checkOpen();
+        MergePlan plan;
+        try {
+            plan = MergePlan.open(archives, options.getDuplicates());
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+        try (plan) {
+            merge(plan);
+        }
+    }
+
+    /**
+     * copies entries kept by plan of merging, plan is not closed
+     */
+    void merge(MergePlan plan) throws IOException {
+        checkOpen();
+        try {
+            duplicateCount += plan.getDuplicateCount();
+            for (ZipIndex index : plan.indexes()) {
+                for (ArchiveEntry entry : index.entries()) {
+                    if (!plan.isKept(entry)) continue;
+                    listener.merging(entry.name);
+                    EntryEvent event = new EntryEvent();
+                    event.begin();
+                    metrics.addRead(entry.compressedSize);
+                    enqueue(CompletableFuture.completedFuture(index.rawEntry(entry)));
+                    event.record(EntryEvent.COPY, entry.name, entry.size, entry.compressedSize);
+                }
+            }
+            while (!pending.isEmpty()) writeCompressed(pending.poll()); // data is read before archives are closed
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * returns total size of added files in bytes
+     */
+    public long getTotalSize() {
+        return scanner.getTotalSize();
+    }
+
+    public int getStoredCount() {
+        return selector.getStoredCount();
+    }
+
+    public int getDeflatedCount() {
+        return selector.getDeflatedCount();
+    }
+
+    /**
+     * returns number of entries copied from archive being updated
+     */
+    public int getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    /**
+     * returns number of entries of merged archives that were skipped as duplicates
+     */
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * writes entries that are still being compressed and central directory;
+     * when updating, replaces existing archive with the new one. If writing failed, central directory is not written
+     * and the new archive file is deleted, so no partial archive is left (archive being updated is kept);
+     * trims cache of deflated data
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try (previous) {
+            try {
+                if (!failed) while (!pending.isEmpty()) writeCompressed(pending.poll());
+            } finally {
+                if (pool != null) pool.shutdownNow();
+                while (!pending.isEmpty()) discardCompressed(pending.poll());
+                if (readAhead != null) readAhead.close();
+            }
+            if (!failed) writer.close();
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        } finally {
+            if (failed) {
+                writer.discard();
+                if (target != null) Files.deleteIfExists(target);
+            }
+            metrics.addElapsed(System.nanoTime() - started);
+        }
+        if (previous != null && !failed) replaceArchive();
+        if (cache != null) cache.trim();
+    }
+
+    /**
+     * replaces archive being updated with the new one which gets permissions and owner of archive (if owner may be
+     * changed), new archive is deleted if it can't replace the old one
+     */
+    private void replaceArchive() throws IOException {
+        try {
+            PosixFileAttributeView view = Files.getFileAttributeView(archive, PosixFileAttributeView.class);
+            if (view != null) {
+                PosixFileAttributes attributes = view.readAttributes();
+                PosixFileAttributeView newView = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+                try {
+                    newView.setOwner(attributes.owner());
+                    newView.setGroup(attributes.group());
+                } catch (IOException ignored) {
+                    // only privileged user may give file away, archive is owned by user updating it then
+                }
+                newView.setPermissions(attributes.permissions()); // owner is changed first as it may reset them
+            }
+            Files.move(target, archive, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw new IOException("Exception while replacing archive: " + archive + "\n" + e.getMessage(), e);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("Archive writer is closed");
+        if (failed) throw new IllegalStateException("Archive writer failed");
+    }
+
+    /**
+     * copies unchanged file from archive being updated or compresses it
+     */
+    private void addFile(FileTreeScanner.ScannedFile file) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (file.path.equals(archive) || file.path.equals(target)) return; // skip archive itself
+            ArchiveEntry unchanged = findUnchanged(file);
+            if (unchanged != null) {
+                listener.copying(file.name);
+                EntryEvent event = new EntryEvent();
+                event.begin();
+                metrics.addRead(unchanged.compressedSize);
+                enqueue(CompletableFuture.completedFuture(previous.rawEntry(unchanged)));
+                event.record(EntryEvent.COPY, file.name, unchanged.size, unchanged.compressedSize);
+                return;
+            }
+            listener.adding(file.name);
+            if (file.directory) { // empty folder => nothing to compress
+                enqueue(CompletableFuture.completedFuture(CompressedEntry.directory(file.name, file.lastModified)));
+                return;
+            }
+            // large files are read by compression through direct buffers
+            ReadAhead.Prefetch prefetch = readAhead != null && file.size < EntryCompressor.LARGE_FILE_THRESHOLD
+                    ? readAhead.prefetch(file.path) : null;
+            FileTask task;
+            if (pool != null && cache == null && file.size >= EntryCompressor.LARGE_FILE_THRESHOLD) {
+                task = new FileTask(() -> stream(file, null), null, true); // deflated by chunks by all threads
+            } else if (pool != null || cache != null) {
+                task = new FileTask(() -> compress(file, prefetch), prefetch, pool == null);
+            } else {
+                task = new FileTask(() -> stream(file, prefetch), prefetch, true);
+            }
+            if (!task.inline) pool.execute(task);
+            enqueue(task);
+        } finally {
+            addingNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * compresses file into memory or into temporary spill file, deflated files are taken from cache if possible
+     * @param prefetch - data of file read ahead or null
+     */
+    private CompressedEntry compress(FileTreeScanner.ScannedFile file, ReadAhead.Prefetch prefetch)
+            throws IOException {
+        EntryEvent event = new EntryEvent();
+        event.begin();
+        int method = prefetch != null ? selector.select(file, prefetch::sample) : selector.select(file);
+        DeflateSettings settings = levels.next();
+        CompressedEntry entry;
+        if (cache != null && method == ZipEntry.DEFLATED) {
+            entry = cache.compress(file, settings, metrics);
+        } else if (prefetch != null) {
+            entry = EntryCompressor.compress(file, prefetch, method, settings, metrics);
+        } else {
+            entry = EntryCompressor.compress(file, method, settings, metrics);
+        }
+        levels.completed(entry.size);
+        event.record(EntryEvent.COMPRESS, file.name, entry.size, entry.compressedSize);
+        return entry;
+    }
+
+    /**
+     * compresses file directly into archive, stored file written to stream is read twice to write its crc first;
+     * when zipping in parallel, file is deflated by chunks by all threads of pool
+     * @param prefetch - data of file read ahead or null
+     * @return null as entry is already written
+     */
+    private CompressedEntry stream(FileTreeScanner.ScannedFile file, ReadAhead.Prefetch prefetch) throws IOException {
+        EntryEvent event = new EntryEvent();
+        event.begin();
+        int method = prefetch != null ? selector.select(file, prefetch::sample) : selector.select(file);
+        DeflateSettings settings = levels.next();
+        long crc = method == ZipEntry.STORED && !writer.isSeekable() ? crcOf(file.path) : -1;
+        OutputStream out = writer.beginEntry(file.name, method, file.lastModified, file.size, crc);
+        CompressedEntry entry;
+        if (prefetch != null) {
+            entry = EntryCompressor.compressTo(file, prefetch, method, settings, out, metrics);
+        } else if (pool != null && method == ZipEntry.DEFLATED) {
+            entry = ChunkedDeflater.compressTo(file, settings, pool, options.getThreads(), out, metrics);
+        } else {
+            entry = EntryCompressor.compressTo(file, method, settings, out, metrics);
+        }
+        writer.endEntry(entry);
+        metrics.addEntry(entry.size, entry.compressedSize);
+        levels.completed(entry.size);
+        event.record(EntryEvent.COMPRESS, file.name, entry.size, entry.compressedSize);
+        return null;
+    }
+
+    /**
+     * returns entry of previous archive if file was not changed since it was added to archive:
+     * size and modification time (and crc with compareCrc option) of file and entry are compared
+     * @return unchanged entry or null
+     */
+    private ArchiveEntry findUnchanged(FileTreeScanner.ScannedFile file) throws IOException {
+        if (previous == null) return null;
+        ArchiveEntry entry = previous.getEntry(file.name);
+        if (entry == null || entry.isDirectory() != file.directory || (entry.flags & 1) != 0) return null; // encrypted
+        if (entry.method != ZipEntry.STORED && entry.method != ZipEntry.DEFLATED) return null;
+        if (entry.size != file.size || entry.dosTime != ZipFormat.javaToDosTime(file.lastModified)) return null;
+        if (options.isCompareCrc() && !file.directory && entry.crc != crcOf(file.path)) return null;
+        unchangedCount++;
+        return entry;
+    }
+
+    /**
+     * calculates crc of file
+     */
+    static long crcOf(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] bytes = CodecPool.buffer();
+        try (InputStream in = Files.newInputStream(path)) {
+            int length;
+            while ((length = in.read(bytes)) >= 0) crc.update(bytes, 0, length);
+        } finally {
+            CodecPool.release(bytes);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * adds entry to queue of entries waiting for writing, writes the oldest one when queue is full
+     */
+    private void enqueue(Future<CompressedEntry> entry) throws IOException {
+        pending.add(entry);
+        if (pending.size() >= maxPending) writeCompressed(pending.poll());
+    }
+
+    /**
+     * waits for entry to be compressed and writes it in archive
+     */
+    private void writeCompressed(Future<CompressedEntry> future) throws IOException {
+        if (future instanceof FileTask && ((FileTask) future).inline) ((FileTask) future).run();
+        CompressedEntry entry;
+        try {
+            entry = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing files");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+        if (entry == null) return; // streamed into archive
+        try {
+            writer.writeEntry(entry);
+            metrics.addEntry(entry.size, entry.compressedSize);
+        } finally {
+            entry.discard();
+        }
+    }
+
+    /**
+     * releases data of entry that will not be written because of failure
+     */
+    private static void discardCompressed(Future<CompressedEntry> future) {
+        if (future.cancel(true) || future.isCancelled()) return;
+        try {
+            CompressedEntry entry = future.get();
+            if (entry != null) entry.discard();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignored) {
+            // nothing was compressed
+        }
+    }
+
+    /**
+     * compression of file which is run by pool or, when it is time to write the file, by writing thread;
+     * data of file read ahead is released when task is finished or cancelled
+     */
+    private static final class FileTask extends FutureTask<CompressedEntry> {
+
+        private final ReadAhead.Prefetch prefetch;
+        /**
+         * true if task is run by writing thread
+         */
+        private final boolean inline;
+
+        FileTask(Callable<CompressedEntry> compression, ReadAhead.Prefetch prefetch, boolean inline) {
+            super(compression);
+            this.prefetch = prefetch;
+            this.inline = inline;
+        }
+
+        @Override
+        protected void done() {
+            if (prefetch != null) prefetch.close();
+        }
+
+    }
+
+}
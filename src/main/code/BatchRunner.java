@@ -0,0 +1,172 @@
+package code;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * runs jobs of manifest in one process, so start of jvm, loading of classes and warming up are paid once
+ * and pooled deflaters and buffers are shared by jobs.
+ * Every line of manifest is a command line of archiver, arguments containing spaces are quoted with " or ';
+ * empty lines and lines starting with # are skipped.
+ * Jobs are independent and are run in any order by pool with limited number of threads,
+ * output of every job is printed together with its result when the job is finished
+ */
+final class BatchRunner {
+
+    private final Path manifest;
+    private final int threads;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final AtomicInteger failed = new AtomicInteger();
+    private int jobCount;
+
+    /**
+     * @param manifest - file with one job per line
+     * @param threads - number of jobs run at once
+     * @param out - stream for output and results of jobs
+     * @param err - stream for progress and errors of jobs
+     */
+    BatchRunner(Path manifest, int threads, PrintStream out, PrintStream err) {
+        this.manifest = manifest;
+        this.threads = threads;
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * runs all jobs of manifest and waits for them
+     * @return true if every job finished successfully
+     */
+    boolean run() throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IOException("Exception while reading manifest: " + manifest + "\n" + e.getMessage(), e);
+        }
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            List<String> args = tokenize(line, i + 1);
+            if (args.contains("-batch")) {
+                throw new IllegalArgumentException("Wrong input: -batch in manifest, line " + (i + 1));
+            }
+            if (args.contains(Main.STDIO)) { // jobs share stdin and stdout of process
+                throw new IllegalArgumentException("Wrong input: archive - in manifest, line " + (i + 1));
+            }
+            jobs.add(new Job(jobs.size() + 1, i + 1, args.toArray(new String[0])));
+        }
+        jobCount = jobs.size();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, jobs.size())));
+        try {
+            List<Future<?>> futures = new ArrayList<>(jobs.size());
+            for (Job job : jobs) futures.add(pool.submit(job));
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while running jobs");
+                } catch (ExecutionException e) {
+                    throw new IOException("Exception while running jobs:\n" + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return failed.get() == 0;
+    }
+
+    int getJobCount() {
+        return jobCount;
+    }
+
+    int getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * splits line in arguments separated by whitespace, quotes are removed
+     * @param number - number of line for error message
+     */
+    static List<String> tokenize(String line, int number) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = new StringBuilder();
+        boolean inArg = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+                else arg.append(c);
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inArg = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArg) args.add(arg.toString());
+                arg.setLength(0);
+                inArg = false;
+            } else {
+                arg.append(c);
+                inArg = true;
+            }
+        }
+        if (quote != 0) throw new IllegalArgumentException("Wrong input: unclosed quote in manifest, line " + number);
+        if (inArg) args.add(arg.toString());
+        return args;
+    }
+
+    /**
+     * job of one line of manifest, its output is kept in memory until it is finished
+     */
+    private final class Job implements Runnable {
+
+        private final int number;
+        private final int line;
+        private final String[] args;
+
+        Job(int number, int line, String[] args) {
+            this.number = number;
+            this.line = line;
+            this.args = args;
+        }
+
+        @Override
+        public void run() {
+            ByteArrayOutputStream jobOut = new ByteArrayOutputStream();
+            ByteArrayOutputStream jobErr = new ByteArrayOutputStream();
+            boolean ok;
+            try (PrintStream outStream = new PrintStream(jobOut, true, StandardCharsets.UTF_8);
+                 PrintStream errStream = new PrintStream(jobErr, true, StandardCharsets.UTF_8)) {
+                try {
+                    ok = Main.run(outStream, errStream, args);
+                } catch (RuntimeException e) {
+                    errStream.println("Exception while archiving\n" + e);
+                    ok = false;
+                }
+            }
+            if (!ok) failed.incrementAndGet();
+            synchronized (BatchRunner.this) {
+                err.print(jobErr.toString(StandardCharsets.UTF_8));
+                err.flush();
+                out.print(jobOut.toString(StandardCharsets.UTF_8));
+                out.println("Job " + number + " (line " + line + ") " + (ok ? "finished successfully" : "failed"));
+                out.flush();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,45 @@
+package code;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * reads region of file channel using positional reads,
+ * so several streams can read the same channel at the same time
+ */
+class ChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private long position;
+    private final long end;
+
+    ChannelInputStream(FileChannel channel, long position, long length) {
+        this.channel = channel;
+        this.position = position;
+        this.end = position + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (position >= end) return -1;
+        len = (int) Math.min(len, end - position);
+        int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+        if (n < 0) throw new IOException("Unexpected end of archive");
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+}
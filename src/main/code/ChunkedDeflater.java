@@ -0,0 +1,232 @@
+package code;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * deflates one large file by several threads like pigz: file is split in chunks which are deflated in parallel,
+ * every chunk is primed with the last 32 KB of previous chunk as dictionary and ends on byte boundary
+ * (sync flush), so deflated chunks joined in order are one deflate stream readable by any unzip tool;
+ * crc of file is combined from crc of chunks. Number of chunks in memory is bounded, their buffers are reused
+ * by the next chunks of file
+ */
+final class ChunkedDeflater {
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+    /**
+     * deflate window, back references never reach further
+     */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    /**
+     * size of buffer for deflated chunk, deflated data of incompressible chunk fits in it
+     */
+    private static final int OUTPUT_SIZE = CHUNK_SIZE + (CHUNK_SIZE >> 3) + 64;
+    /**
+     * how many chunks per thread may be read or deflated at once
+     */
+    private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+    private static final long CRC_POLYNOMIAL = 0xedb88320L;
+
+    private ChunkedDeflater() {
+    }
+
+    /**
+     * writes deflated data of file to stream and calculates its crc
+     * @param pool - threads deflating chunks, writing thread must not be one of them
+     * @param threads - number of threads of pool
+     * @param out - stream for compressed data, closed when data is written
+     * @return entry without data
+     */
+    static CompressedEntry compressTo(FileTreeScanner.ScannedFile file, DeflateSettings settings, ExecutorService pool,
+                                      int threads, OutputStream out, ArchiveMetrics metrics) throws IOException {
+        long start = System.nanoTime();
+        Deque<Future<Chunk>> chunks = new ArrayDeque<>();
+        Joined joined = new Joined(out);
+        try (out; InputStream in = Files.newInputStream(file.path)) {
+            byte[] previous = null;
+            while (true) {
+                byte[] data = joined.inputs.isEmpty() ? new byte[CHUNK_SIZE] : joined.inputs.poll();
+                byte[] output = joined.outputs.isEmpty() ? new byte[OUTPUT_SIZE] : joined.outputs.poll();
+                int length = in.readNBytes(data, 0, data.length);
+                boolean last = length < data.length;
+                byte[] dictionary = previous;
+                chunks.add(pool.submit(() -> deflate(data, length, dictionary, output, last, settings)));
+                if (last) break;
+                previous = data;
+                if (chunks.size() >= threads * CHUNKS_IN_FLIGHT_PER_THREAD) joined.append(take(chunks));
+            }
+            while (!chunks.isEmpty()) joined.append(take(chunks));
+            metrics.addTime(ArchiveMetrics.Phase.COMPRESS, System.nanoTime() - start - joined.writing);
+            metrics.addRead(joined.size);
+            metrics.addLevel(settings.level);
+        } catch (IOException e) {
+            throw new IOException("Exception while compressing file: " + file.path + "\n" + e.getMessage(), e);
+        } finally {
+            for (Future<Chunk> chunk : chunks) chunk.cancel(true);
+        }
+        return new CompressedEntry(file.name, ZipEntry.DEFLATED, joined.crc, joined.size, joined.compressedSize,
+                ZipFormat.javaToDosTime(file.lastModified), null);
+    }
+
+    /**
+     * deflates chunk, chunk which is not the last one is finished by sync flush
+     * @param dictionary - previous chunk, which is full, or null for the first chunk; its last bytes are dictionary
+     * @param output - buffer for deflated data, it is replaced by bigger one if data does not fit
+     */
+    private static Chunk deflate(byte[] data, int length, byte[] dictionary, byte[] output, boolean last,
+                                 DeflateSettings settings) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        Deflater deflater = CodecPool.deflater(settings);
+        int position = 0;
+        try {
+            if (dictionary != null) deflater.setDictionary(dictionary, CHUNK_SIZE - DICTIONARY_SIZE, DICTIONARY_SIZE);
+            deflater.setInput(data, 0, length);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (position == output.length) output = Arrays.copyOf(output, output.length * 2);
+                    position += deflater.deflate(output, position, output.length - position);
+                }
+            } else {
+                // output is flushed completely when deflater leaves free space in buffer
+                while (true) {
+                    if (position == output.length) output = Arrays.copyOf(output, output.length * 2);
+                    position += deflater.deflate(output, position, output.length - position, Deflater.SYNC_FLUSH);
+                    if (position < output.length && deflater.needsInput()) break;
+                }
+            }
+        } finally {
+            CodecPool.release(deflater);
+        }
+        return new Chunk(output, position, length, crc.getValue(), dictionary);
+    }
+
+    private static Chunk take(Deque<Future<Chunk>> chunks) throws IOException {
+        try {
+            return chunks.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing file");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * returns crc of two joined pieces of data from crc of every piece (crc32_combine of zlib):
+     * crc of the first piece is moved over zero bits of the second piece's length by squaring operator matrix
+     * @param length - length of the second piece in bytes
+     */
+    static long combine(long crc1, long crc2, long length) {
+        if (length <= 0) return crc1;
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        odd[0] = CRC_POLYNOMIAL; // operator for one zero bit
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd); // two zero bits
+        square(odd, even); // four zero bits
+        while (true) { // first square gives operator for one zero byte
+            square(even, odd);
+            if ((length & 1) != 0) crc1 = times(even, crc1);
+            length >>= 1;
+            if (length == 0) break;
+            square(odd, even);
+            if ((length & 1) != 0) crc1 = times(odd, crc1);
+            length >>= 1;
+            if (length == 0) break;
+        }
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) sum ^= matrix[i];
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) square[n] = times(matrix, matrix[n]);
+    }
+
+    /**
+     * deflate stream of chunks written in order; buffers of written chunks are kept for the next chunks,
+     * they are only used by writing thread
+     */
+    private static final class Joined {
+
+        private final OutputStream out;
+        final Deque<byte[]> inputs = new ArrayDeque<>();
+        final Deque<byte[]> outputs = new ArrayDeque<>();
+        long crc;
+        long size;
+        long compressedSize;
+        /**
+         * time spent in writing
+         */
+        long writing;
+
+        Joined(OutputStream out) {
+            this.out = out;
+        }
+
+        void append(Chunk chunk) throws IOException {
+            long start = System.nanoTime();
+            out.write(chunk.data, 0, chunk.length);
+            writing += System.nanoTime() - start;
+            crc = combine(crc, chunk.crc, chunk.size);
+            size += chunk.size;
+            compressedSize += chunk.length;
+            // data of chunk is dictionary of the next chunk, so data of previous chunk is free now
+            if (chunk.dictionary != null) inputs.add(chunk.dictionary);
+            outputs.add(chunk.data);
+        }
+
+    }
+
+    /**
+     * deflated chunk of file
+     */
+    private static final class Chunk {
+
+        final byte[] data;
+        final int length;
+        /**
+         * size and crc of uncompressed chunk
+         */
+        final int size;
+        final long crc;
+        /**
+         * data of previous chunk used as dictionary or null
+         */
+        final byte[] dictionary;
+
+        Chunk(byte[] data, int length, int size, long crc, byte[] dictionary) {
+            this.data = data;
+            this.length = length;
+            this.size = size;
+            this.crc = crc;
+            this.dictionary = dictionary;
+        }
+
+    }
+
+}
@@ -0,0 +1,82 @@
+package code;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * keeps deflaters, inflaters and buffers after use, so they are not created again for every entry;
+ * pool is shared by all writers and readers, number of kept objects is bounded
+ */
+final class CodecPool {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int MAX_POOLED = 64;
+    /**
+     * direct buffers are big and are kept out of heap, so only few of them are pooled
+     */
+    static final int MAX_POOLED_DIRECT = 8;
+
+    private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(MAX_POOLED);
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(MAX_POOLED);
+    private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(MAX_POOLED);
+    private static final BlockingQueue<ByteBuffer> DIRECT_BUFFERS = new ArrayBlockingQueue<>(MAX_POOLED_DIRECT);
+
+    private CodecPool() {
+    }
+
+    /**
+     * returns deflater producing raw deflate data (without zlib header), as it is stored in zip
+     */
+    static Deflater deflater(DeflateSettings settings) {
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) deflater = new Deflater(settings.level, true);
+        else deflater.setLevel(settings.level);
+        deflater.setStrategy(settings.strategy);
+        return deflater;
+    }
+
+    static void release(Deflater deflater) {
+        deflater.reset();
+        if (!DEFLATERS.offer(deflater)) deflater.end();
+    }
+
+    /**
+     * returns inflater reading raw deflate data (without zlib header)
+     */
+    static Inflater inflater() {
+        Inflater inflater = INFLATERS.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    static void release(Inflater inflater) {
+        inflater.reset();
+        if (!INFLATERS.offer(inflater)) inflater.end();
+    }
+
+    static byte[] buffer() {
+        byte[] buffer = BUFFERS.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    static void release(byte[] buffer) {
+        BUFFERS.offer(buffer);
+    }
+
+    /**
+     * returns cleared direct buffer with capacity of at least given size,
+     * pooled buffer that is too small is dropped
+     */
+    static ByteBuffer directBuffer(int size) {
+        ByteBuffer buffer = DIRECT_BUFFERS.poll();
+        if (buffer == null || buffer.capacity() < size) return ByteBuffer.allocateDirect(size);
+        return buffer.clear();
+    }
+
+    static void release(ByteBuffer buffer) {
+        DIRECT_BUFFERS.offer(buffer);
+    }
+
+}
@@ -0,0 +1,78 @@
+package code;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.ZipEntry;
+
+/**
+ * archive entry which data is already compressed and is ready to be written in archive
+ */
+class CompressedEntry {
+
+    /**
+     * compressed data of entry: kept in memory, spill file or other archive
+     */
+    interface Data {
+        void transferTo(WritableByteChannel target) throws IOException;
+
+        default void discard() {
+        }
+    }
+
+    final String name;
+    /**
+     * name bytes of entry copied from other archive which are written as is without utf-8 flag, otherwise null
+     */
+    final byte[] rawName;
+    final int method;
+    final long crc;
+    final long size;
+    final long compressedSize;
+    final long dosTime;
+    private final Data data;
+
+    CompressedEntry(String name, int method, long crc, long size, long compressedSize, long dosTime, Data data) {
+        this(name, null, method, crc, size, compressedSize, dosTime, data);
+    }
+
+    CompressedEntry(String name, byte[] rawName, int method, long crc, long size, long compressedSize, long dosTime,
+                    Data data) {
+        this.name = name;
+        this.rawName = rawName;
+        this.method = method;
+        this.crc = crc;
+        this.size = size;
+        this.compressedSize = compressedSize;
+        this.dosTime = dosTime;
+        this.data = data;
+    }
+
+    /**
+     * creates entry for empty directory
+     */
+    static CompressedEntry directory(String name, long time) {
+        return new CompressedEntry(name, ZipEntry.STORED, 0, 0, 0, ZipFormat.javaToDosTime(time), null);
+    }
+
+    /**
+     * returns the same entry with compressed data attached
+     */
+    CompressedEntry withData(Data data) {
+        return new CompressedEntry(name, rawName, method, crc, size, compressedSize, dosTime, data);
+    }
+
+    /**
+     * writes compressed data to channel
+     */
+    void transferTo(WritableByteChannel target) throws IOException {
+        if (data != null) data.transferTo(target);
+    }
+
+    /**
+     * releases memory or temporary file with compressed data
+     */
+    void discard() {
+        if (data != null) data.discard();
+    }
+
+}
@@ -0,0 +1,72 @@
+package code;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * chooses deflate level of next entry: with throughput target level is lowered when archive is written
+ * slower than target and raised when it is written faster, so ratio is the best one that keeps target;
+ * without target level is fixed. Throughput is measured over window of several megabytes or one second.
+ * Controller is thread safe
+ */
+final class CompressionLevelController {
+
+    /**
+     * level is changed when window has this many bytes or lasts this long
+     */
+    private static final long WINDOW_BYTES = 8L * 1024 * 1024;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * level is raised only when throughput exceeds target by this factor, so it doesn't swing near target
+     */
+    private static final double RAISE_MARGIN = 1.15;
+    /**
+     * level 0 is not deflation at all, stored method is used for that
+     */
+    private static final int MIN_LEVEL = 1;
+
+    private final double targetMbps;
+    private DeflateSettings current;
+    private long windowStart = System.nanoTime();
+    private long windowBytes;
+
+    /**
+     * @param base - level and strategy of deflater, level is the initial one in adaptive mode
+     * @param targetMbps - throughput target in megabytes per second, 0 for fixed level
+     */
+    CompressionLevelController(DeflateSettings base, double targetMbps) {
+        this.targetMbps = targetMbps;
+        this.current = targetMbps > 0 ? base.withLevel(Math.max(base.level, MIN_LEVEL)) : base;
+    }
+
+    boolean isAdaptive() {
+        return targetMbps > 0;
+    }
+
+    /**
+     * returns settings for next entry
+     */
+    synchronized DeflateSettings next() {
+        return current;
+    }
+
+    /**
+     * accounts entry which was compressed, changes level when window is over
+     * @param bytes - size of entry
+     */
+    synchronized void completed(long bytes) {
+        if (!isAdaptive()) return;
+        windowBytes += bytes;
+        long elapsed = System.nanoTime() - windowStart;
+        if (windowBytes < WINDOW_BYTES && elapsed < WINDOW_NANOS) return;
+        double mbps = windowBytes * 1e9 / Math.max(elapsed, 1) / (1024 * 1024);
+        if (mbps < targetMbps && current.level > MIN_LEVEL) {
+            current = current.withLevel(current.level - 1);
+        } else if (mbps > targetMbps * RAISE_MARGIN && current.level < Deflater.BEST_COMPRESSION) {
+            current = current.withLevel(current.level + 1);
+        }
+        windowStart = System.nanoTime();
+        windowBytes = 0;
+    }
+
+}
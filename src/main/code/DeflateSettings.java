@@ -0,0 +1,59 @@
+package code;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * deflate level and strategy of entry
+ */
+final class DeflateSettings {
+
+    static final DeflateSettings DEFAULT = new DeflateSettings(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+    /**
+     * level used by zlib for default compression
+     */
+    static final int ZLIB_DEFAULT_LEVEL = 6;
+
+    final int level;
+    final int strategy;
+
+    DeflateSettings(int level, int strategy) {
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Wrong input: compression level must be from 0 to 9");
+        }
+        this.level = level == Deflater.DEFAULT_COMPRESSION ? ZLIB_DEFAULT_LEVEL : level;
+        this.strategy = strategy;
+    }
+
+    DeflateSettings withLevel(int level) {
+        return level == this.level ? this : new DeflateSettings(level, strategy);
+    }
+
+    /**
+     * parses strategy name: default, filtered or huffman
+     */
+    static int parseStrategy(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "default":
+                return Deflater.DEFAULT_STRATEGY;
+            case "filtered":
+                return Deflater.FILTERED;
+            case "huffman":
+                return Deflater.HUFFMAN_ONLY;
+            default:
+                throw new IllegalArgumentException("Wrong input: unknown compression strategy: " + name);
+        }
+    }
+
+    /**
+     * returns short text which differs for different settings, for example "6" or "9-filtered"
+     */
+    @Override
+    public String toString() {
+        if (strategy == Deflater.FILTERED) return level + "-filtered";
+        if (strategy == Deflater.HUFFMAN_ONLY) return level + "-huffman";
+        return String.valueOf(level);
+    }
+
+}
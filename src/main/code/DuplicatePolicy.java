@@ -0,0 +1,34 @@
+package code;
+
+import java.util.Locale;
+
+/**
+ * what is done with entries of the same name when archives are merged, folders are always kept once
+ */
+public enum DuplicatePolicy {
+
+    /**
+     * entry of the first archive is kept
+     */
+    FIRST,
+    /**
+     * entry of the last archive is kept
+     */
+    LAST,
+    /**
+     * merging fails before anything is copied
+     */
+    FAIL;
+
+    /**
+     * returns policy by its name: first, last or fail
+     */
+    static DuplicatePolicy parse(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Wrong input: unknown duplicate policy: " + name);
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+package code;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * compresses single file into archive or into memory, for big files into temporary spill file;
+ * deflaters and buffers are taken from {@link CodecPool}.
+ * Large files are read through file channel into direct buffers which are deflated and written to channel as is,
+ * so their data is not copied to java heap
+ */
+final class EntryCompressor {
+
+    static final int SPILL_THRESHOLD = 8 * 1024 * 1024;
+    /**
+     * files of this size or bigger are compressed with direct buffers when output is channel
+     */
+    static final long LARGE_FILE_THRESHOLD = 16 * 1024 * 1024;
+    /**
+     * direct buffers are about 1/64 of file, but not less and not more than this
+     */
+    private static final int MIN_DIRECT_BUFFER = 256 * 1024;
+    private static final int MAX_DIRECT_BUFFER = 4 * 1024 * 1024;
+
+    private EntryCompressor() {
+    }
+
+    /**
+     * compresses file into memory or into temporary spill file
+     * @param file - file (or empty folder) to compress
+     * @param method - ZipEntry.STORED or ZipEntry.DEFLATED
+     * @param settings - level and strategy of deflater
+     */
+    static CompressedEntry compress(FileTreeScanner.ScannedFile file, int method, DeflateSettings settings,
+                                    ArchiveMetrics metrics) throws IOException {
+        if (file.directory) return CompressedEntry.directory(file.name, file.lastModified);
+        if (file.size >= LARGE_FILE_THRESHOLD) {
+            SpillBuffer out = new SpillBuffer(SPILL_THRESHOLD);
+            try {
+                return compressLarge(file, method, settings, out, metrics).withData(out);
+            } catch (IOException e) {
+                out.discard();
+                throw e;
+            }
+        }
+        try (InputStream in = open(file)) {
+            return compress(file, in, method, settings, metrics);
+        }
+    }
+
+    /**
+     * compresses data of file read from stream (for example, read ahead) into memory or into temporary spill file
+     * @param in - data of file, stream is not closed
+     */
+    static CompressedEntry compress(FileTreeScanner.ScannedFile file, InputStream in, int method,
+                                    DeflateSettings settings, ArchiveMetrics metrics) throws IOException {
+        SpillBuffer out = new SpillBuffer(SPILL_THRESHOLD);
+        try {
+            return compressTo(file, in, method, settings, out, metrics).withData(out);
+        } catch (IOException e) {
+            out.discard();
+            throw e;
+        }
+    }
+
+    /**
+     * deflates data of stream into memory or into temporary spill file
+     * @param name - name of entry
+     * @param time - modification time of entry
+     * @param in - data of entry
+     * @param settings - level and strategy of deflater
+     */
+    static CompressedEntry compress(String name, long time, InputStream in, DeflateSettings settings,
+                                    ArchiveMetrics metrics) throws IOException {
+        SpillBuffer out = new SpillBuffer(SPILL_THRESHOLD);
+        try {
+            return compressTo(name, ZipFormat.javaToDosTime(time), in, ZipEntry.DEFLATED, settings, out, metrics)
+                    .withData(out);
+        } catch (IOException e) {
+            out.discard();
+            throw e;
+        }
+    }
+
+    /**
+     * writes stored or deflated data of file to stream and calculates its crc
+     * @param file - file to compress
+     * @param method - ZipEntry.STORED or ZipEntry.DEFLATED
+     * @param settings - level and strategy of deflater
+     * @param out - stream for compressed data, closed when data is written; large file is written with direct buffers
+     *              if stream is also channel
+     * @return entry without data
+     */
+    static CompressedEntry compressTo(FileTreeScanner.ScannedFile file, int method, DeflateSettings settings,
+                                      OutputStream out, ArchiveMetrics metrics) throws IOException {
+        if (file.size >= LARGE_FILE_THRESHOLD && out instanceof WritableByteChannel) {
+            return compressLarge(file, method, settings, (WritableByteChannel) out, metrics);
+        }
+        try (InputStream in = open(file)) {
+            return compressTo(file, in, method, settings, out, metrics);
+        }
+    }
+
+    /**
+     * writes stored or deflated data of file read from stream to output stream and calculates its crc
+     * @param in - data of file, stream is not closed
+     * @param out - stream for compressed data, closed when data is written
+     * @return entry without data
+     */
+    static CompressedEntry compressTo(FileTreeScanner.ScannedFile file, InputStream in, int method,
+                                      DeflateSettings settings, OutputStream out, ArchiveMetrics metrics)
+            throws IOException {
+        try {
+            return compressTo(file.name, ZipFormat.javaToDosTime(file.lastModified), in, method, settings, out,
+                    metrics);
+        } catch (IOException e) {
+            throw failure(file, e);
+        }
+    }
+
+    private static InputStream open(FileTreeScanner.ScannedFile file) throws IOException {
+        try {
+            return Files.newInputStream(file.path);
+        } catch (IOException e) {
+            throw failure(file, e);
+        }
+    }
+
+    private static IOException failure(FileTreeScanner.ScannedFile file, IOException e) {
+        return new IOException("Exception while compressing file: " + file.path + "\n" + e.getMessage(), e);
+    }
+
+    /**
+     * writes deflated data of stream to output stream and calculates its crc
+     * @param name - name of entry
+     * @param time - modification time of entry
+     * @param in - data of entry
+     * @param settings - level and strategy of deflater
+     * @param out - stream for compressed data, closed when data is written
+     * @return entry without data
+     */
+    static CompressedEntry compressTo(String name, long time, InputStream in, DeflateSettings settings,
+                                      OutputStream out, ArchiveMetrics metrics) throws IOException {
+        return compressTo(name, ZipFormat.javaToDosTime(time), in, ZipEntry.DEFLATED, settings, out, metrics);
+    }
+
+    /**
+     * writes stored or deflated data from input stream to output stream and calculates its crc;
+     * time spent in writing to output stream is not counted as compression time
+     * @return entry without data
+     */
+    private static CompressedEntry compressTo(String name, long dosTime, InputStream in, int method,
+                                              DeflateSettings settings, OutputStream out, ArchiveMetrics metrics)
+            throws IOException {
+        long start = System.nanoTime();
+        long writing = 0;
+        Deflater deflater = method == ZipEntry.DEFLATED ? CodecPool.deflater(settings) : null;
+        byte[] input = CodecPool.buffer();
+        byte[] output = deflater != null ? CodecPool.buffer() : null;
+        CRC32 crc = new CRC32();
+        long size = 0;
+        long compressedSize;
+        try (out) {
+            int length;
+            while ((length = in.read(input)) >= 0) {
+                crc.update(input, 0, length);
+                size += length;
+                if (deflater == null) {
+                    writing += write(out, input, length);
+                    continue;
+                }
+                deflater.setInput(input, 0, length);
+                while (!deflater.needsInput()) writing += write(out, output, deflater.deflate(output));
+            }
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) writing += write(out, output, deflater.deflate(output));
+            }
+            compressedSize = deflater != null ? deflater.getBytesWritten() : size;
+            metrics.addTime(ArchiveMetrics.Phase.COMPRESS, System.nanoTime() - start - writing);
+            metrics.addRead(size);
+            if (deflater != null) metrics.addLevel(settings.level);
+        } finally {
+            if (deflater != null) {
+                CodecPool.release(deflater);
+                CodecPool.release(output);
+            }
+            CodecPool.release(input);
+        }
+        return new CompressedEntry(name, method, crc.getValue(), size, compressedSize, dosTime, null);
+    }
+
+    /**
+     * writes stored or deflated data of large file to channel and calculates its crc:
+     * file is read into direct buffer, which is given to deflater (or written, if file is stored) as is,
+     * and deflated data is written from direct buffer; size of buffers depends on size of file
+     * @param out - channel for compressed data, closed when data is written
+     * @return entry without data
+     */
+    private static CompressedEntry compressLarge(FileTreeScanner.ScannedFile file, int method,
+                                                 DeflateSettings settings, WritableByteChannel out,
+                                                 ArchiveMetrics metrics) throws IOException {
+        long start = System.nanoTime();
+        long writing = 0;
+        int bufferSize = (int) Math.min(MAX_DIRECT_BUFFER, Math.max(MIN_DIRECT_BUFFER, file.size >> 6));
+        Deflater deflater = method == ZipEntry.DEFLATED ? CodecPool.deflater(settings) : null;
+        ByteBuffer input = CodecPool.directBuffer(bufferSize);
+        ByteBuffer output = deflater != null ? CodecPool.directBuffer(bufferSize) : null;
+        CRC32 crc = new CRC32();
+        long size = 0;
+        long compressedSize;
+        try (out; FileChannel in = FileChannel.open(file.path, StandardOpenOption.READ)) {
+            while (in.read(input) >= 0) {
+                input.flip();
+                size += input.remaining();
+                input.mark();
+                crc.update(input);
+                input.reset();
+                if (deflater == null) {
+                    writing += write(out, input);
+                } else {
+                    deflater.setInput(input);
+                    while (!deflater.needsInput()) writing += deflate(deflater, output, out);
+                }
+                input.clear();
+            }
+            if (deflater != null) {
+                input.limit(0); // deflater keeps reading the cleared buffer
+                deflater.finish();
+                while (!deflater.finished()) writing += deflate(deflater, output, out);
+            }
+            compressedSize = deflater != null ? deflater.getBytesWritten() : size;
+            metrics.addTime(ArchiveMetrics.Phase.COMPRESS, System.nanoTime() - start - writing);
+            metrics.addRead(size);
+            if (deflater != null) metrics.addLevel(settings.level);
+        } catch (IOException e) {
+            throw failure(file, e);
+        } finally {
+            if (deflater != null) {
+                CodecPool.release(deflater);
+                CodecPool.release(output);
+            }
+            CodecPool.release(input);
+        }
+        return new CompressedEntry(file.name, method, crc.getValue(), size, compressedSize,
+                ZipFormat.javaToDosTime(file.lastModified), null);
+    }
+
+    /**
+     * deflates data into buffer and writes it to channel, returns time spent in writing
+     */
+    private static long deflate(Deflater deflater, ByteBuffer output, WritableByteChannel out) throws IOException {
+        output.clear();
+        deflater.deflate(output);
+        output.flip();
+        return write(out, output);
+    }
+
+    /**
+     * writes remaining bytes of buffer to channel and returns time spent in writing
+     */
+    private static long write(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        long start = System.nanoTime();
+        while (buffer.hasRemaining()) out.write(buffer);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * writes bytes to stream and returns time spent in writing
+     */
+    private static long write(OutputStream out, byte[] bytes, int length) throws IOException {
+        long start = System.nanoTime();
+        out.write(bytes, 0, length);
+        return System.nanoTime() - start;
+    }
+
+}
@@ -0,0 +1,54 @@
+package code;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * flight recorder event for every entry compressed, copied, unpacked or tested;
+ * costs nothing but a check when recording is not enabled
+ */
+@Name("code.ArchiveEntry")
+@Label("Archive Entry")
+@Category("Zip Archiver")
+@Description("Entry compressed, copied from updated archive, unpacked or tested")
+@StackTrace(false)
+final class EntryEvent extends Event {
+
+    static final String COMPRESS = "compress";
+    static final String COPY = "copy";
+    static final String EXTRACT = "extract";
+    static final String TEST = "test";
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Name")
+    String name;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+
+    @Label("Compressed Size")
+    @DataAmount
+    long compressedSize;
+
+    /**
+     * ends event and commits it if it is recorded
+     */
+    void record(String operation, String name, long size, long compressedSize) {
+        end();
+        if (!shouldCommit()) return;
+        this.operation = operation;
+        this.name = name;
+        this.size = size;
+        this.compressedSize = compressedSize;
+        commit();
+    }
+
+}
@@ -0,0 +1,126 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * selects entries of archive by their names:
+ * entry is selected if it matches any include pattern (or there are none) and doesn't match exclude patterns.
+ * Patterns are globs (like "*.png" or "dir/**") or regular expressions with "regex:" prefix;
+ * glob without '/' is matched against the last part of the name.
+ * Both '/' and '\' are treated as separators in entry names
+ */
+class EntryFilter {
+
+    static final String REGEX_PREFIX = "regex:";
+    static final String GLOB_PREFIX = "glob:";
+
+    private final List<Matcher> includes = new ArrayList<>();
+    private final List<Matcher> excludes = new ArrayList<>();
+
+    EntryFilter(List<String> includePatterns, List<String> excludePatterns) {
+        for (String pattern : includePatterns) includes.add(new Matcher(pattern));
+        for (String pattern : excludePatterns) excludes.add(new Matcher(pattern));
+    }
+
+    /**
+     * returns true if filter selects all entries
+     */
+    boolean acceptsAll() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    boolean accept(String entryName) {
+        String name = entryName.replace('\\', '/');
+        if (name.endsWith("/")) name = name.substring(0, name.length() - 1);
+        String lastPart = name.substring(name.lastIndexOf('/') + 1);
+        boolean included = includes.isEmpty();
+        for (Matcher include : includes) {
+            if (include.matches(name, lastPart)) {
+                included = true;
+                break;
+            }
+        }
+        if (!included) return false;
+        for (Matcher exclude : excludes) {
+            if (exclude.matches(name, lastPart)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * converts glob to regular expression:
+     * "**" matches any part of path, "*" and "?" match characters except '/', "{a,b}" matches any alternative
+     */
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int groups = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char ch = glob.charAt(i);
+            switch (ch) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                            i++;
+                            regex.append("(?:.*/)?");
+                        } else {
+                            regex.append(".*");
+                        }
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '{':
+                    regex.append("(?:");
+                    groups++;
+                    break;
+                case '}':
+                    if (groups > 0) {
+                        regex.append(')');
+                        groups--;
+                    } else {
+                        regex.append("\\}");
+                    }
+                    break;
+                case ',':
+                    regex.append(groups > 0 ? "|" : ",");
+                    break;
+                default:
+                    if ("\\.[]()+-^$|".indexOf(ch) >= 0) regex.append('\\');
+                    regex.append(ch);
+            }
+        }
+        if (groups > 0) throw new IllegalArgumentException("Wrong input: unclosed '{' in pattern: " + glob);
+        return regex.toString();
+    }
+
+    /**
+     * compiled include or exclude pattern
+     */
+    private static class Matcher {
+        private final Pattern pattern;
+        private final boolean lastPartOnly;
+
+        Matcher(String pattern) {
+            if (pattern.startsWith(REGEX_PREFIX)) {
+                this.pattern = Pattern.compile(pattern.substring(REGEX_PREFIX.length()));
+                this.lastPartOnly = false;
+            } else {
+                String glob = pattern.startsWith(GLOB_PREFIX) ? pattern.substring(GLOB_PREFIX.length()) : pattern;
+                glob = glob.replace('\\', '/');
+                this.pattern = Pattern.compile(globToRegex(glob));
+                this.lastPartOnly = glob.indexOf('/') < 0;
+            }
+        }
+
+        boolean matches(String name, String lastPart) {
+            return pattern.matcher(lastPartOnly ? lastPart : name).matches();
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package code;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * chooses between storing and deflating of entry:
+ * already compressed formats are recognized by extension,
+ * other files are recognized by test deflating of their first block;
+ * counts how many entries were stored and deflated
+ */
+class EntryMethodSelector {
+
+    static final int SAMPLE_SIZE = 64 * 1024;
+    /**
+     * files smaller than this are always deflated: sampling them costs more than deflating
+     */
+    static final int MIN_SAMPLED_SIZE = 4 * 1024;
+    /**
+     * sample that can't be compressed to this part of its size is considered incompressible
+     */
+    static final double INCOMPRESSIBLE_RATIO = 0.95;
+
+    private static final Set<String> INCOMPRESSIBLE_EXTENSIONS = Set.of(
+            "png", "jpg", "jpeg", "gif", "webp", "heic", "avif",
+            "mp3", "aac", "m4a", "ogg", "oga", "opus", "flac",
+            "mp4", "m4v", "mkv", "mov", "avi", "webm", "wmv",
+            "zip", "jar", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "lz4", "br",
+            "docx", "xlsx", "pptx", "odt", "ods", "epub", "woff", "woff2");
+
+    private static final ThreadLocal<Deflater> SAMPLE_DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+
+    private final AtomicInteger storedCount = new AtomicInteger();
+    private final AtomicInteger deflatedCount = new AtomicInteger();
+
+    /**
+     * returns ZipEntry.STORED for incompressible files and ZipEntry.DEFLATED for others
+     */
+    int select(FileTreeScanner.ScannedFile file) throws IOException {
+        return select(file, size -> {
+            try (InputStream in = Files.newInputStream(file.path)) {
+                return in.readNBytes(size);
+            }
+        });
+    }
+
+    /**
+     * returns ZipEntry.STORED for incompressible files and ZipEntry.DEFLATED for others,
+     * sample of file is taken from sampler (for example, from data read ahead)
+     */
+    int select(FileTreeScanner.ScannedFile file, Sampler sampler) throws IOException {
+        int method = isIncompressible(file, sampler) ? ZipEntry.STORED : ZipEntry.DEFLATED;
+        (method == ZipEntry.STORED ? storedCount : deflatedCount).incrementAndGet();
+        return method;
+    }
+
+    int getStoredCount() {
+        return storedCount.get();
+    }
+
+    int getDeflatedCount() {
+        return deflatedCount.get();
+    }
+
+    private boolean isIncompressible(FileTreeScanner.ScannedFile file, Sampler sampler) throws IOException {
+        if (file.size == 0) return true;
+        if (INCOMPRESSIBLE_EXTENSIONS.contains(extensionOf(file.name))) return true;
+        if (file.size < MIN_SAMPLED_SIZE) return false;
+        byte[] sample = sampler.sample(SAMPLE_SIZE);
+        return compressedSize(sample) >= sample.length * INCOMPRESSIBLE_RATIO;
+    }
+
+    /**
+     * deflates sample with the fastest level and returns size of compressed data
+     */
+    private static long compressedSize(byte[] sample) {
+        Deflater deflater = SAMPLE_DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(sample);
+        deflater.finish();
+        byte[] out = new byte[SAMPLE_SIZE];
+        while (!deflater.finished()) deflater.deflate(out);
+        return deflater.getBytesWritten();
+    }
+
+    private static String extensionOf(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * source of first bytes of file
+     */
+    interface Sampler {
+
+        byte[] sample(int size) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,82 @@
+package code;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * plans where entries are unpacked before any data is written: names of entries are checked to stay inside
+ * destination folder lexically, without calls to file system, and folders of entries are collected once,
+ * so every folder is created by one call, parents before children
+ */
+final class ExtractionPlan {
+
+    private final Path root;
+    /**
+     * all planned folders and ones that are not created yet
+     */
+    private final Set<Path> dirs = new HashSet<>();
+    private final List<Path> pending = new ArrayList<>();
+
+    /**
+     * creates destination folder if it doesn't exist
+     */
+    ExtractionPlan(Path destDir) throws IOException {
+        Files.createDirectories(destDir);
+        this.root = destDir.toRealPath();
+    }
+
+    /**
+     * returns path of entry in destination folder and plans its folder and parent folders
+     */
+    Path add(String name, boolean directory) throws IOException {
+        Path target = target(name);
+        Path dir = directory ? target : target.getParent();
+        while (!dir.equals(root) && dirs.add(dir)) {
+            pending.add(dir);
+            dir = dir.getParent();
+        }
+        return target;
+    }
+
+    /**
+     * creates planned folders that are not created yet, existing folders are kept
+     */
+    void createDirectories() throws IOException {
+        pending.sort(Comparator.comparingInt(Path::getNameCount));
+        for (Path dir : pending) {
+            try {
+                Files.createDirectory(dir);
+            } catch (FileAlreadyExistsException e) {
+                if (!Files.isDirectory(dir)) throw new IOException("Failed to create directory: " + dir, e);
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * guards against writing files to the file system outside the target folder (zip slip protection):
+     * name must not be absolute and must not leave the folder by "..";
+     * links which already exist in destination folder are not followed by the check
+     */
+    private Path target(String name) throws IOException {
+        Path target;
+        try {
+            target = root.resolve(name).normalize();
+        } catch (InvalidPathException e) {
+            throw new IOException("Invalid entry name: " + name, e);
+        }
+        if (!target.startsWith(root) || target.equals(root)) {
+            throw new IOException("Entry is outside of the target dir: " + name);
+        }
+        return target;
+    }
+
+}
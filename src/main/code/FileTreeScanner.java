@@ -0,0 +1,133 @@
+package code;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * walks files to zip in one pass and reports every file and empty folder as soon as it is found,
+ * so list of all paths is never held in memory; attributes read during the walk are reused
+ */
+class FileTreeScanner {
+
+    /**
+     * receives files in the order they are found
+     */
+    interface Visitor {
+        void visit(ScannedFile file) throws IOException;
+    }
+
+    private long totalSize;
+    private long fileCount;
+
+    /**
+     * walks every file or folder from list
+     * @param roots - files and folders provided by user
+     * @param visitor - receives files and empty folders
+     */
+    void scan(List<File> roots, Visitor visitor) throws IOException {
+        for (File root : roots) {
+            Path rootPath = root.toPath().toAbsolutePath().normalize();
+            Path base = rootPath.getParent();
+            Files.walkFileTree(rootPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                    new TreeVisitor(base, visitor));
+        }
+    }
+
+    /**
+     * returns total size of found files in bytes
+     */
+    long getTotalSize() {
+        return totalSize;
+    }
+
+    long getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * counts children of every open folder to find empty folders without listing them twice;
+     * stack keeps number of children and modification time of every open folder
+     */
+    private class TreeVisitor extends SimpleFileVisitor<Path> {
+        private final Path base;
+        private final Visitor visitor;
+        private final Deque<long[]> openDirs = new ArrayDeque<>();
+
+        TreeVisitor(Path base, Visitor visitor) {
+            this.base = base;
+            this.visitor = visitor;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            countChild();
+            openDirs.push(new long[]{0, attrs.lastModifiedTime().toMillis()});
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+            countChild();
+            totalSize += attrs.size();
+            fileCount++;
+            visitor.visit(new ScannedFile(file, nameOf(file), false, attrs.size(),
+                    attrs.lastModifiedTime().toMillis()));
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+            throw new IOException("Exception while getting files: " + file + "\n" + e.getMessage(), e);
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+            if (e != null) throw new IOException("Exception while getting files: " + dir + "\n" + e.getMessage(), e);
+            long[] openDir = openDirs.pop();
+            if (openDir[0] == 0) visitor.visit(new ScannedFile(dir, nameOf(dir) + "/", true, 0, openDir[1]));
+            return FileVisitResult.CONTINUE;
+        }
+
+        private void countChild() {
+            if (!openDirs.isEmpty()) openDirs.peek()[0]++;
+        }
+
+        /**
+         * name of entry is path relative to folder containing the file provided by user
+         */
+        private String nameOf(Path path) {
+            return base == null ? path.toString() : base.relativize(path).toString();
+        }
+    }
+
+    /**
+     * file or empty folder found by scanner
+     */
+    static class ScannedFile {
+        final Path path;
+        final String name;
+        final boolean directory;
+        final long size;
+        final long lastModified;
+
+        ScannedFile(Path path, String name, boolean directory, long size, long lastModified) {
+            this.path = path;
+            this.name = name;
+            this.directory = directory;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+}
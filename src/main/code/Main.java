@@ -6,29 +6,74 @@ import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 /**
  * Options:
  * -u - unzip file in files instead of zipping
  * -p - unzip archive in selected directory / create zip in selected directory
  * -a - zip all files in current directory (only used when zipping)
+ * -j - number of threads compressing files in parallel / unpacking entries in parallel /
+ *      number of jobs run at once with -batch (number of processors by default)
+ * -update - update existing archive: unchanged files are copied from it without recompression (only used when zipping)
+ * -crc - compare crc of files in addition to size and modification time when checking if file is unchanged
+ *        (with -update or -sync)
+ * -nocrc - don't verify crc of unpacked entries (only used when unzipping)
+ * -preallocate - set final length of every unpacked file before writing it, so file is not extended by every write;
+ *                disk space is not reserved, file is sparse until it is written (only used when unzipping)
+ * -sync - don't unpack files which have size and modification time of their entries (and crc with -crc),
+ *         interrupted unpacking continues where it stopped (only used when unzipping)
+ * -l - list entries of archive instead of zipping
+ * -t - test archive instead of zipping: every entry is inflated without writing it anywhere and its crc and sizes
+ *      are checked (by several threads with -j), result of every entry is printed;
+ *      exit code is 1 if some entries have errors and 2 if archive can't be tested
+ * -i - unpack / list / test only entries matching pattern (glob or "regex:..."), can be repeated
+ * -x - don't unpack / list / test entries matching pattern (glob or "regex:..."), can be repeated
+ * -q - quiet: don't print every zipped / unpacked / correct tested file
+ * -report - write json summary of metrics (bytes, compression ratio, time of every phase, entries/s) to file
+ * -fsync - force archive / unpacked files to disk before closing them
+ * -cache - keep deflated files in selected folder, files that were already deflated are taken from it
+ *          (only used when zipping)
+ * -cache-size - size of cache in megabytes, 1024 by default
+ * -level - deflate level: 1 (fastest) - 9 (best compression), 6 by default (only used when zipping)
+ * -strategy - deflate strategy: default, filtered or huffman (only used when zipping)
+ * -target-mbps - change level from file to file to keep zipping at selected throughput (megabytes per second)
+ *                with the best compression, -level is the initial level (only used when zipping)
+ * -read-ahead - number of files read ahead of compression, 0 by default - files are read by compression
+ *               (only used when zipping)
+ * -batch - run jobs of manifest file in this process: every line of manifest is a command line of archiver
+ *          (arguments may be quoted, empty lines and lines starting with # are skipped),
+ *          jobs are independent and may run in any order, every job gets its own result
+ * -m - merge archives provided as files into one archive instead of zipping: compressed entries are copied as is
+ * -duplicates - what is done with entries of the same name when merging: first (first archive wins),
+ *               last (last archive wins) or fail (by default)
+ * Archive name "-" writes archive to stdout when zipping (then results are printed to stderr) and reads it from stdin
+ * when unzipping, so archiver can be used in pipes
  */
 public class Main {
 
     public static final Character[] INVALID_WINDOWS_SPECIFIC_CHARS = {':', '/', '\\', '"', '*', '<', '>', '?', '|'};
     public static final Character[] INVALID_UNIX_SPECIFIC_CHARS = {'\000'};
+    /**
+     * archive name meaning stdout when zipping and stdin when unzipping
+     */
+    static final String STDIO = "-";
 
     @SuppressWarnings("unused")
     @Option(name = "-u")
@@ -40,51 +85,202 @@ public class Main {
     @Option(name = "-a")
     private boolean a;
     @SuppressWarnings("unused")
+    @Option(name = "-j")
+    private Integer j;
+    @SuppressWarnings("unused")
+    @Option(name = "-update")
+    private boolean update;
+    @SuppressWarnings("unused")
+    @Option(name = "-crc")
+    private boolean crc;
+    @SuppressWarnings("unused")
+    @Option(name = "-nocrc")
+    private boolean nocrc;
+    @SuppressWarnings("unused")
+    @Option(name = "-sync")
+    private boolean sync;
+    @SuppressWarnings("unused")
+    @Option(name = "-preallocate")
+    private boolean preallocate;
+    @SuppressWarnings("unused")
+    @Option(name = "-l")
+    private boolean l;
+    @SuppressWarnings("unused")
+    @Option(name = "-t")
+    private boolean t;
+    @SuppressWarnings("unused")
+    @Option(name = "-i")
+    private List<String> includes = new ArrayList<>();
+    @SuppressWarnings("unused")
+    @Option(name = "-x")
+    private List<String> excludes = new ArrayList<>();
+    @SuppressWarnings("unused")
+    @Option(name = "-q")
+    private boolean q;
+    @SuppressWarnings("unused")
+    @Option(name = "-report")
+    private String report;
+    @SuppressWarnings("unused")
+    @Option(name = "-fsync")
+    private boolean fsync;
+    @SuppressWarnings("unused")
+    @Option(name = "-cache")
+    private String cache;
+    @SuppressWarnings("unused")
+    @Option(name = "-cache-size")
+    private long cacheSize = 1024;
+    @SuppressWarnings("unused")
+    @Option(name = "-level")
+    private Integer level;
+    @SuppressWarnings("unused")
+    @Option(name = "-strategy")
+    private String strategy;
+    @SuppressWarnings("unused")
+    @Option(name = "-target-mbps")
+    private Double targetMbps;
+    @SuppressWarnings("unused")
+    @Option(name = "-read-ahead")
+    private Integer readAhead;
+    @SuppressWarnings("unused")
+    @Option(name = "-batch")
+    private boolean batch;
+    @SuppressWarnings("unused")
+    @Option(name = "-m")
+    private boolean m;
+    @SuppressWarnings("unused")
+    @Option(name = "-duplicates")
+    private String duplicates;
+    @SuppressWarnings("unused")
     @Argument(required = true)
     private List<String> userInput;
 
     private String userPath = "";
     private String userArchiveName;
+    private final InputStream in;
+    /**
+     * streams for listing and result / for progress and errors, result is printed to err when archive is written to out
+     */
+    private PrintStream out;
+    private final PrintStream err;
+    /**
+     * exit code of process, only set by -t: 1 - archive has entries with errors, 2 - archive can't be tested
+     */
+    private int exitCode;
+    /**
+     * number of up-to-date files skipped by -sync
+     */
+    private int skipped;
+
+    private Main(InputStream in, PrintStream out, PrintStream err) {
+        this.in = in;
+        this.out = out;
+        this.err = err;
+    }
 
     public static void main(String[] args) {
-        new Main().launch(args);
+        Main main = new Main(System.in, System.out, System.err);
+        main.launch(args);
+        if (main.exitCode != 0) System.exit(main.exitCode);
     }
 
     /**
-     * guards against writing files to the file system outside the target folder (zip slip protection)
+     * runs archiver with command line arguments
+     * @return true if process finished successfully
      */
-    private static File newFile(File destinationDir, ZipEntry zipEntry) throws IOException {
-        File destFile = new File(destinationDir, zipEntry.getName());
-        String destDirPath = destinationDir.getCanonicalPath();
-        String destFilePath = destFile.getCanonicalPath();
-        if (!destFilePath.startsWith(destDirPath + File.separator)) {
-            throw new IOException("Entry is outside of the target dir: " + zipEntry.getName());
-        }
-        return destFile;
+    static boolean run(String... args) {
+        return run(System.out, System.err, args);
+    }
+
+    /**
+     * runs archiver with command line arguments printing to selected streams
+     * @return true if process finished successfully
+     */
+    static boolean run(PrintStream out, PrintStream err, String... args) {
+        return run(System.in, out, err, args);
+    }
+
+    /**
+     * runs archiver with command line arguments reading archive "-" from selected stream
+     * @return true if process finished successfully
+     */
+    static boolean run(InputStream in, PrintStream out, PrintStream err, String... args) {
+        return new Main(in, out, err).launch(args);
     }
 
     /**
      * Parses command line arguments
      * @param args - command line arguments
+     * @return true if process finished successfully
      */
-    private void launch(String[] args) {
-        CmdLineParser parser = new CmdLineParser(this);
+    private boolean launch(String[] args) {
+        CmdLineParser parser = new CmdLineParser(this) {
+            @Override
+            protected boolean isOption(String arg) {
+                return !arg.equals(STDIO) && super.isOption(arg);
+            }
+        };
         try {
             parser.parseArgument(args);
         } catch (CmdLineException e) {
-            System.err.println("Exception while parsing arguments\n" + e.getMessage());
+            err.println("Exception while parsing arguments\n" + e.getMessage());
             printFail();
-            return;
+            return false;
         }
         try {
+            if (batch) {
+                if (u || p || a || l || t || m || update || sync || preallocate || report != null || cache != null
+                        || isCompressionSet() || !includes.isEmpty() || !excludes.isEmpty() || userInput.size() != 1) {
+                    throw new IllegalArgumentException("Wrong input: -batch with other options");
+                }
+                int jobs = j == null ? Runtime.getRuntime().availableProcessors() : j;
+                if (jobs < 1) throw new IllegalArgumentException("Wrong input: number of threads must be positive");
+                BatchRunner runner = new BatchRunner(getExistingFile(userInput.get(0)).toPath(), jobs, out, err);
+                if (!runner.run()) throw new IllegalArgumentException("Jobs failed: " + runner.getFailedCount()
+                        + " of " + runner.getJobCount());
+                printSuccess();
+                return true;
+            }
+            if (duplicates != null && !m) throw new IllegalArgumentException("Flag -duplicates without -m");
             setUserArchiveName();
-            if (!u) {
-                System.err.println("Archive name set: " + userArchiveName);
-                if (p) {
-                    setUserPath();
-                    System.err.println("Path set: " + userPath);
+            if (t) {
+                exitCode = 2;
+                if (u || a || p || l || m || update || sync || preallocate || cache != null || isCompressionSet()) {
+                    throw new IllegalArgumentException("Wrong input: -t with other options");
+                }
+                if (!userInput.isEmpty()) throw new IllegalArgumentException("Wrong input: -t with files");
+                if (userArchiveName.equals(STDIO)) throw new IllegalArgumentException("Wrong input: -t with stdin");
+                test(getExistingFile(userArchiveName));
+            } else if (l) {
+                if (u || a || p || m || update || sync || preallocate || report != null || cache != null
+                        || isCompressionSet()) {
+                    throw new IllegalArgumentException("Wrong input: -l with other options");
+                }
+                if (!userInput.isEmpty()) throw new IllegalArgumentException("Wrong input: -l with files");
+                if (userArchiveName.equals(STDIO)) throw new IllegalArgumentException("Wrong input: -l with stdin");
+                list(getExistingFile(userArchiveName));
+            } else if (!u) {
+                if (m && (a || update || cache != null || isCompressionSet())) {
+                    throw new IllegalArgumentException("Wrong input: -m with other options");
+                }
+                if (!includes.isEmpty() || !excludes.isEmpty()) {
+                    throw new IllegalArgumentException("Wrong input: -i/-x when zipping");
+                }
+                if (sync) throw new IllegalArgumentException("Flag -sync when zipping");
+                if (preallocate) throw new IllegalArgumentException("Flag -preallocate when zipping");
+                PrintStream stdout = out;
+                if (userArchiveName.equals(STDIO)) {
+                    if (p) throw new IllegalArgumentException("Wrong input: -p with archive written to stdout");
+                    if (update) throw new IllegalArgumentException("Flag -update with archive written to stdout");
+                    out = err;
+                    err.println("Archive will be written to stdout");
                 } else {
-                    System.err.println("Archive will be created in current working directory");
+                    err.println("Archive name set: " + userArchiveName);
+                    if (p) {
+                        setUserPath();
+                        err.println("Path set: " + userPath);
+                    } else {
+                        err.println("Archive will be created in current working directory");
+                    }
                 }
                 List<File> filesToZip = new ArrayList<>();
                 if (a) {
@@ -94,36 +290,48 @@ public class Main {
                     if (userInput.isEmpty()) throw new IllegalArgumentException("Wrong input: no files provided");
                     getExistingFilesFromUserInput(filesToZip);
                 }
-                zipper(filesToZip);
+                if (m) merger(filesToZip, stdout);
+                else zipper(filesToZip, stdout);
             } else {
                 if (a) throw new IllegalArgumentException("Flag -a when unzipping");
-                System.err.println("Archive name: " + userArchiveName);
+                if (m) throw new IllegalArgumentException("Flag -m when unzipping");
+                if (update) throw new IllegalArgumentException("Flag -update when unzipping");
+                if (cache != null) throw new IllegalArgumentException("Flag -cache when unzipping");
+                if (isCompressionSet()) {
+                    throw new IllegalArgumentException("Flag -level/-strategy/-target-mbps/-read-ahead when unzipping");
+                }
+                err.println("Archive name: " + userArchiveName);
                 File destDir;
                 if (p) {
                     setUserPath();
                     destDir = new File(userPath);
-                    System.err.println("Archive will be unpacked in directory: " + userPath);
+                    err.println("Archive will be unpacked in directory: " + userPath);
                 } else {
                     destDir = new File(System.getProperty("user.dir"));
-                    System.err.println("Archive will be unpacked in current working directory");
+                    err.println("Archive will be unpacked in current working directory");
+                }
+                if (userArchiveName.equals(STDIO)) {
+                    if (sync) throw new IllegalArgumentException("Flag -sync with archive read from stdin");
+                    unzip(destDir);
+                } else {
+                    unzip(destDir, getExistingFile(userArchiveName));
                 }
-                File archive = getExistingFile(userArchiveName);
-                unzip(destDir, archive);
             }
         } catch (Exception e) {
-            System.err.println("Exception while archiving\n" + e.getMessage());
+            err.println("Exception while archiving\n" + e.getMessage());
             printFail();
-            return;
+            return false;
         }
         printSuccess();
+        return true;
     }
 
     private void printFail() {
-        System.out.println("Process finished with errors");
+        out.println("Process finished with errors");
     }
 
     private void printSuccess() {
-        System.out.println("Process finished successfully");
+        out.println("Process finished successfully");
     }
 
     /**
@@ -133,7 +341,7 @@ public class Main {
         if (isArchiveNameInvalid()) throw new IllegalArgumentException("Invalid archive name: " +
                 userInput.get(userInput.size() - 1) + ".zip");
         userArchiveName = userInput.get(userInput.size() - 1);
-        if(!u) userArchiveName += ".zip";
+        if (!u && !l && !t && !userArchiveName.equals(STDIO)) userArchiveName += ".zip";
         userInput.remove(userInput.size() - 1);
     }
 
@@ -171,23 +379,162 @@ public class Main {
     private void setUserPath() {
         if(userInput.size() == 0) throw new IllegalArgumentException("Wrong input: no path provided");
         userPath = userInput.get(userInput.size() - 1);
-        if (userPath.charAt(userPath.length() - 1) != '\\') userPath += '\\';
+        char last = userPath.charAt(userPath.length() - 1);
+        if (last != '\\' && last != File.separatorChar) userPath += File.separatorChar;
         if (!Files.exists(Paths.get(userPath))) throw new IllegalArgumentException("Path not found: " + userPath);
         userInput.remove(userInput.size() - 1);
     }
 
     /**
-     * prepares lists of absolute paths and names for files to zip,
+     * zips files walking them once,
      * prints total size of files to zip and size of final archive
      * @param filesToZip - list of files to zip (from current directory (-a) or from userInput)
+     * @param stdout - stream for archive named "-", it is closed with archive
      */
-    private void zipper(List<File> filesToZip) throws IOException, IllegalArgumentException {
-        System.err.println("Total file size: " + getFilesSize(filesToZip) / 1024 + " kB");
-        List<String> absPaths = new ArrayList<>();
-        List<String> correctNames = new ArrayList<>();
-        getListsOfNames(filesToZip, absPaths, correctNames);
-        zip(absPaths, correctNames);
-        System.err.println("Archive size: " + new File(userPath + userArchiveName).length() / 1024 + " kB");
+    private void zipper(List<File> filesToZip, PrintStream stdout) throws IOException, IllegalArgumentException {
+        ArchiveOptions options = options();
+        boolean streamed = userArchiveName.equals(STDIO);
+        ArchiveWriter writer;
+        try {
+            writer = streamed ? new ArchiveWriter(stdout, options)
+                    : new ArchiveWriter(Paths.get(userPath + userArchiveName), options);
+            try (writer) {
+                if (writer.isUpdating()) err.println("Updating existing archive");
+                writer.add(filesToZip);
+            }
+            if (streamed && stdout.checkError()) throw new IOException("Failed to write archive to stdout");
+        } catch (IOException e) {
+            throw new IOException("Exception while adding files to zip:\n" + e.getMessage(), e);
+        }
+        err.println("Total file size: " + writer.getTotalSize() / 1024 + " kB");
+        if (writer.isUpdating()) err.println("Unchanged entries: " + writer.getUnchangedCount());
+        err.println("Stored entries: " + writer.getStoredCount()
+                + ", deflated entries: " + writer.getDeflatedCount());
+        if (cache != null) {
+            err.println("Entries taken from cache: " + options.getMetrics().getCacheHits()
+                    + ", added to cache: " + options.getMetrics().getCacheMisses());
+        }
+        if (targetMbps != null) printLevels(options.getMetrics());
+        long size = streamed ? options.getMetrics().getBytesWritten()
+                : new File(userPath + userArchiveName).length();
+        err.println("Archive size: " + size / 1024 + " kB");
+        writeReport(options.getMetrics());
+    }
+
+    /**
+     * merges archives into one copying their compressed entries without recompression,
+     * prints number of merged entries and size of final archive
+     * @param archives - archives to merge in the order they are provided
+     * @param stdout - stream for archive named "-", it is closed with archive
+     */
+    private void merger(List<File> archives, PrintStream stdout) throws IOException {
+        ArchiveOptions options = options();
+        if (duplicates != null) options.duplicates(DuplicatePolicy.parse(duplicates));
+        boolean streamed = userArchiveName.equals(STDIO);
+        File target = new File(userPath + userArchiveName);
+        List<Path> paths = new ArrayList<>(archives.size());
+        for (File archive : archives) {
+            if (!streamed && archive.getCanonicalFile().equals(target.getCanonicalFile())) {
+                throw new IllegalArgumentException("Wrong input: archive can't be merged into itself: " + archive);
+            }
+            paths.add(archive.toPath());
+        }
+        int duplicateCount;
+        // duplicates are resolved before archive is created, so failure leaves existing file untouched
+        try (MergePlan plan = MergePlan.open(paths, options.getDuplicates())) {
+            duplicateCount = plan.getDuplicateCount();
+            try (ArchiveWriter writer = streamed ? new ArchiveWriter(stdout, options)
+                    : new ArchiveWriter(target.toPath(), options)) {
+                writer.merge(plan);
+            }
+            if (streamed && stdout.checkError()) throw new IOException("Failed to write archive to stdout");
+        } catch (IOException e) {
+            throw new IOException("Exception while merging archives:\n" + e.getMessage(), e);
+        }
+        err.println("Merged archives: " + archives.size() + ", entries: " + options.getMetrics().getEntries()
+                + ", duplicates skipped: " + duplicateCount);
+        long size = streamed ? options.getMetrics().getBytesWritten() : target.length();
+        err.println("Archive size: " + size / 1024 + " kB");
+        writeReport(options.getMetrics());
+    }
+
+    /**
+     * returns true if any of -level, -strategy, -target-mbps, -read-ahead is provided
+     */
+    private boolean isCompressionSet() {
+        return level != null || strategy != null || targetMbps != null || readAhead != null;
+    }
+
+    /**
+     * prints how many entries were deflated with every level and throughput of zipping
+     */
+    private void printLevels(ArchiveMetrics metrics) {
+        StringBuilder levels = new StringBuilder();
+        for (int i = Deflater.NO_COMPRESSION; i <= Deflater.BEST_COMPRESSION; i++) {
+            long entries = metrics.getLevelEntries(i);
+            if (entries == 0) continue;
+            if (levels.length() > 0) levels.append(", ");
+            levels.append(i).append(": ").append(entries).append(entries == 1 ? " entry" : " entries");
+        }
+        err.println("Compression levels: " + (levels.length() == 0 ? "none" : levels));
+        err.println(String.format(Locale.ROOT, "Throughput: %.1f MB/s", metrics.getMegabytesPerSecond()));
+    }
+
+    /**
+     * creates options of archiver from command line arguments,
+     * progress is printed to error stream, every zipped / unpacked file is printed unless -q is provided
+     */
+    private ArchiveOptions options() {
+        ArchiveOptions options = new ArchiveOptions().threads(j == null ? 1 : j).update(update).compareCrc(crc)
+                .verifyCrc(!nocrc).fsync(fsync);
+        includes.forEach(options::include);
+        excludes.forEach(options::exclude);
+        if (cache != null) options.cache(Paths.get(cache), cacheSize * 1024 * 1024);
+        if (level != null) options.level(level);
+        if (strategy != null) options.strategy(DeflateSettings.parseStrategy(strategy));
+        if (targetMbps != null) options.targetMbps(targetMbps);
+        if (readAhead != null) options.readAhead(readAhead);
+        return options.listener(new ArchiveListener() {
+            @Override
+            public void adding(String name) {
+                if (!q) err.println("Zipping file: " + name);
+            }
+
+            @Override
+            public void copying(String name) {
+                if (!q) err.println("Copying unchanged file: " + name);
+            }
+
+            @Override
+            public void merging(String name) {
+                if (!q) err.println("Merging entry: " + name);
+            }
+
+            @Override
+            public void selected(int selected, int total) {
+                err.println("Selected entries: " + selected + " of " + total);
+            }
+
+            @Override
+            public void extracting(String name) {
+                if (!q) err.println("Unpacking file: " + name);
+            }
+
+            @Override
+            public void skipping(String name) {
+                skipped++;
+                if (!q) err.println("Skipping up-to-date file: " + name);
+            }
+        });
+    }
+
+    /**
+     * writes json summary of metrics to file provided with -report
+     */
+    private void writeReport(ArchiveMetrics metrics) throws IOException {
+        if (report == null) return;
+        metrics.writeReport(Paths.get(report));
+        err.println("Report written: " + report);
     }
 
     /**
@@ -209,7 +556,7 @@ public class Main {
      */
     private File getExistingFile(String userInput) throws IOException {
         try {
-            System.err.println("Searching file: " + userInput);
+            err.println("Searching file: " + userInput);
             File file = new File(userInput);
             if (!file.exists()) throw new NoSuchFileException("No such file: " + userInput);
             else return file;
@@ -229,141 +576,99 @@ public class Main {
     }
 
     /**
-     * fills lists of absolute paths and correct names for files to zip
-     * @param listOfFiles list of files to zip
-     * @param absPaths list of absolute paths to files
-     * @param correctNames list of file names appropriate for ZipEntry
+     * prints size, compressed size, method, modification time and name of every entry of archive
+     * @param archive - archive to list
      */
-    private void getListsOfNames(List<File> listOfFiles, List<String> absPaths, List<String> correctNames) throws IOException {
-        for (File file : listOfFiles) {
-            String common = file.getAbsolutePath().substring(0, file.getAbsolutePath().lastIndexOf('\\') + 1);
-            List<String> temp = new ArrayList<>();
-            generateFileList(temp, file);// returns abs paths for files (including those in folders)
-            absPaths.addAll(temp);
-            for (String absPath : temp) {
-                String str = absPath.replace(common, "");
-                if (str.startsWith(".\\")) str = str.substring(2); // removes "./" from file name
-                correctNames.add(str);
+    private void list(File archive) throws IOException {
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        EntryFilter filter = new EntryFilter(includes, excludes);
+        long size = 0;
+        long compressedSize = 0;
+        int count = 0;
+        try (ArchiveReader reader = ArchiveReader.open(archive.toPath())) {
+            out.printf("%12s %12s  %-7s %-16s  %s%n", "Length", "Size", "Method", "Date", "Name");
+            for (ArchiveEntry entry : reader.entries()) {
+                if (!filter.accept(entry.getName())) continue;
+                LocalDateTime time = LocalDateTime.ofInstant(
+                        Instant.ofEpochMilli(entry.getLastModified()), ZoneId.systemDefault());
+                String method = entry.getMethod() == ZipEntry.STORED ? "Stored"
+                        : entry.getMethod() == ZipEntry.DEFLATED ? "Defl" : "?" + entry.getMethod();
+                out.printf("%12d %12d  %-7s %-16s  %s%n", entry.getSize(), entry.getCompressedSize(), method,
+                        format.format(time), entry.getName());
+                size += entry.getSize();
+                compressedSize += entry.getCompressedSize();
+                count++;
             }
+            out.printf("%12d %12d  %d entries%n", size, compressedSize, count);
+        } catch (IOException e) {
+            throw new IOException("Exception while listing archive:\n" + e.getMessage(), e);
         }
     }
 
     /**
-     * creates archive and adds files in it
-     * @param absPaths list of absolute paths to files
-     * @param correctNames list of file names appropriate for ZipEntry
+     * tests archive without unpacking it: selected entries are inflated (by several threads with -j)
+     * and their crc and sizes are checked, result of every entry is printed (only errors with -q)
+     * @param archive - archive to test
      */
-    private void zip(List<String> absPaths, List<String> correctNames) throws IOException {
-        byte[] bytes;
-        int length;
-        ZipEntry zipEntry;
-        FileInputStream fis;
-        try (FileOutputStream fos = new FileOutputStream(userPath + userArchiveName);
-             ZipOutputStream zos = new ZipOutputStream(fos)) {
-            for (int i = 0; i < correctNames.size(); i++) {
-                String fileName = correctNames.get(i);
-                String absPath = absPaths.get(i);
-                if (fileName.equals(userArchiveName)) continue; // skip .zip itself when -a
-                System.err.println("Zipping file: " + fileName);
-                zipEntry = new ZipEntry(fileName);
-                zos.putNextEntry(zipEntry);
-                if (new File(absPath).isDirectory()) continue; // if folder => empty folder => nothing to write
-                fis = new FileInputStream(absPath);
-                bytes = new byte[1024];
-                while ((length = fis.read(bytes)) >= 0) {
-                    zos.write(bytes, 0, length);
+    private void test(File archive) throws IOException {
+        ArchiveOptions options = options();
+        int[] tested = {0};
+        int failed;
+        try (ArchiveReader reader = ArchiveReader.open(archive.toPath())) {
+            options.listener(new ArchiveListener() {
+                @Override
+                public void selected(int selected, int total) {
+                    err.println("Selected entries: " + selected + " of " + total);
                 }
-                zos.closeEntry();
-                fis.close();
-            }
-        } catch (IOException e) {
-            throw new IOException("Exception while adding files to zip:\n" + e.getMessage(), e);
-        }
-    }
 
-    /**
-     * generates list of file names in folders
-     */
-    private void generateFileList(List<String> fileNamesToZip, File node) throws IOException {
-        if (node.isFile()) {
-            fileNamesToZip.add(node.toString());
-        }
-        if (node.isDirectory()) {
-            if (isDirectoryEmpty(node)) {
-                fileNamesToZip.add(node + "/");
-                return;
-            }
-            String[] subNote = node.list();
-            if (subNote != null) {
-                for (String filename : subNote) {
-                    generateFileList(fileNamesToZip, new File(node, filename));
+                @Override
+                public void tested(String name, String error) {
+                    tested[0]++;
+                    if (error != null) out.println("FAILED  " + error);
+                    else if (!q) out.println("OK      " + name);
                 }
-            }
+            });
+            failed = reader.test(options);
+        } catch (IOException e) {
+            throw new IOException("Exception while testing archive:\n" + e.getMessage(), e);
         }
+        out.println("Tested entries: " + tested[0] + ", with errors: " + failed);
+        writeReport(options.getMetrics());
+        exitCode = failed == 0 ? 0 : 1;
+        if (failed != 0) throw new IllegalArgumentException("Archive has entries with errors: " + failed);
     }
 
     /**
-     * checks if directory is empty
-     */
-    private boolean isDirectoryEmpty(File directory) throws IOException {
-        String[] files = directory.list();
-        if (files != null) return files.length == 0;
-        else throw new IOException("Exception while getting empty folder: " + directory);
-    }
-
-    /**
-     * returns size of files in bytes
+     * unpacks archive to the destination folder, with -i/-x only data of selected entries is read
+     * @param destDir - path to destination folder
+     * @param archive - archive to unzip
      */
-    private long getFilesSize(List<File> files) throws IOException {
-        long sum = 0;
-        for (File file : files) {
-            if (file.isDirectory()) {
-                sum += Files.walk(Path.of(file.getAbsolutePath()))
-                        .filter(p -> p.toFile().isFile())
-                        .mapToLong(p -> p.toFile().length())
-                        .sum();
-            } else {
-                sum += file.length();
-            }
+    private void unzip(File destDir, File archive) throws IOException {
+        ArchiveOptions options = options().sync(sync).preallocate(preallocate);
+        try (ArchiveReader reader = ArchiveReader.open(archive.toPath())) {
+            reader.extractTo(destDir.toPath(), options);
+        } catch (IOException e) {
+            throw new IOException("Exception while unzipping:\n" + e.getMessage(), e);
         }
-        return sum;
+        if (sync) err.println("Up-to-date files skipped: " + skipped);
+        writeReport(options.getMetrics());
     }
 
     /**
-     * unpacks archive to the destination folder
+     * unpacks archive read from stdin to the destination folder entry by entry,
+     * the rest of stream after entries is read too, so process writing it doesn't fail
      * @param destDir - path to destination folder
-     * @param archive - archive to unzip
      */
-    private void unzip(File destDir, File archive) throws IOException {
-        byte[] buffer = new byte[1024];
-        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(archive))) {
-            ZipEntry zipEntry = zis.getNextEntry();
-            while (zipEntry != null) {
-                File newFile = newFile(destDir, zipEntry);
-                if (zipEntry.isDirectory()) {
-                    if (!newFile.isDirectory() && !newFile.mkdirs()) {
-                        throw new IOException("Failed to create directory: " + newFile);
-                    }
-                } else {
-                    // fix for Windows-created archives
-                    File parent = newFile.getParentFile();
-                    if (!parent.isDirectory() && !parent.mkdirs()) {
-                        throw new IOException("Failed to create directory: " + parent);
-                    }
-                    FileOutputStream fos = new FileOutputStream(newFile);
-                    System.err.println("Unpacking file: " + zipEntry);
-                    int len;
-                    while ((len = zis.read(buffer)) > 0) {
-                        fos.write(buffer, 0, len);
-                    }
-                    fos.close();
-                }
-                zipEntry = zis.getNextEntry();
-            }
-            zis.closeEntry();
+    private void unzip(File destDir) throws IOException {
+        ArchiveOptions options = options();
+        err.println("Archive will be read from stdin");
+        try {
+            ArchiveReader.extract(in, destDir.toPath(), options);
+            in.transferTo(OutputStream.nullOutputStream());
         } catch (IOException e) {
             throw new IOException("Exception while unzipping:\n" + e.getMessage(), e);
         }
+        writeReport(options.getMetrics());
     }
 
 }
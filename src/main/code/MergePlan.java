@@ -0,0 +1,85 @@
+package code;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * plans merging of archives before anything is written: central directories of all archives are read
+ * and entries of the same name are resolved by duplicate policy, folders are kept once;
+ * archives stay open until plan is closed
+ */
+final class MergePlan implements Closeable {
+
+    private final List<ZipIndex> indexes = new ArrayList<>();
+    /**
+     * entries that are copied by their names
+     */
+    private final Map<String, ArchiveEntry> kept = new HashMap<>();
+    private int duplicateCount;
+
+    private MergePlan() {
+    }
+
+    /**
+     * opens archives and chooses their entries that are copied
+     * @throws IOException if entry is encrypted or duplicate names are not allowed
+     */
+    static MergePlan open(List<Path> archives, DuplicatePolicy policy) throws IOException {
+        MergePlan plan = new MergePlan();
+        try {
+            for (Path path : archives) {
+                ZipIndex index = ZipIndex.open(path);
+                plan.indexes.add(index);
+                for (ArchiveEntry entry : index.entries()) plan.add(entry, path, policy);
+            }
+        } catch (IOException | RuntimeException e) {
+            plan.close();
+            throw e;
+        }
+        return plan;
+    }
+
+    private void add(ArchiveEntry entry, Path path, DuplicatePolicy policy) throws IOException {
+        if ((entry.flags & 1) != 0) throw new IOException("Encrypted entry can't be merged: " + entry.name);
+        ArchiveEntry previous = kept.putIfAbsent(entry.name, entry);
+        if (previous == null) return;
+        duplicateCount++;
+        if (entry.isDirectory() || policy == DuplicatePolicy.FIRST) return;
+        if (policy == DuplicatePolicy.FAIL) {
+            throw new IOException("Duplicate entry: " + entry.name + " in archive: " + path);
+        }
+        kept.put(entry.name, entry);
+    }
+
+    /**
+     * returns opened archives in the order they are merged
+     */
+    List<ZipIndex> indexes() {
+        return indexes;
+    }
+
+    /**
+     * returns true if entry is copied
+     */
+    boolean isKept(ArchiveEntry entry) {
+        return kept.get(entry.name) == entry;
+    }
+
+    /**
+     * returns number of entries skipped as duplicates
+     */
+    int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ZipIndex index : indexes) index.close();
+    }
+
+}
@@ -0,0 +1,321 @@
+package code;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+/**
+ * on-disk cache of deflated payloads shared by archives and processes:
+ * payload of file is kept under sha-256 of its content and deflate settings together with its crc and sizes,
+ * so file that was already deflated once is spliced into archive as is.
+ * Payloads are written to temporary file and moved to cache atomically, so partly written payload is never read;
+ * payload is opened before it is used, so it can be evicted by other process while it is copied.
+ * Least recently used payloads are evicted when cache is trimmed, only by one process at a time
+ */
+class PayloadCache {
+
+    private static final int MAGIC = 0x5a434331; // ZCC1
+    /**
+     * magic, reserved, crc, size, compressed size
+     */
+    private static final int HEADER_SIZE = 32;
+    private static final String SUFFIX = ".z";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String LOCK_FILE = ".lock";
+    /**
+     * temporary files older than this are left by crashed processes and are deleted when cache is trimmed
+     */
+    private static final long STALE_TEMP_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final Path dir;
+    private final long maxSize;
+
+    /**
+     * @param dir - cache folder, created if it doesn't exist
+     * @param maxSize - size of cached payloads in bytes kept after trimming
+     */
+    PayloadCache(Path dir, long maxSize) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * returns deflated file from cache or deflates file and adds it to cache
+     * @param settings - level and strategy of deflater, payloads deflated with different settings are cached separately
+     */
+    CompressedEntry compress(FileTreeScanner.ScannedFile file, DeflateSettings settings, ArchiveMetrics metrics)
+            throws IOException {
+        long start = System.nanoTime();
+        String hash = hash(file);
+        metrics.addTime(ArchiveMetrics.Phase.COMPRESS, System.nanoTime() - start);
+        Path payload = dir.resolve(hash.substring(0, 2)).resolve(hash + "-" + settings + SUFFIX);
+        CompressedEntry cached = lookup(payload, file);
+        if (cached != null) {
+            metrics.addCacheHit();
+            metrics.addRead(cached.size); // file was only read to be hashed, on miss it is counted by compression
+            metrics.addLevel(settings.level);
+            return cached;
+        }
+        metrics.addCacheMiss();
+        return store(payload, hash, file, settings, metrics);
+    }
+
+    /**
+     * deletes least recently used payloads until cache fits in its size;
+     * does nothing if cache is being trimmed by other process
+     */
+    void trim() throws IOException {
+        try (FileChannel lockChannel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+             FileLock lock = tryLock(lockChannel)) {
+            if (lock == null) return;
+            List<Cached> payloads = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            try (Stream<Path> files = Files.walk(dir, 2)) {
+                files.filter(Files::isRegularFile).forEach(path -> {
+                    String name = path.getFileName().toString();
+                    if (name.endsWith(SUFFIX)) {
+                        payloads.add(new Cached(path));
+                    } else if (name.endsWith(TEMP_SUFFIX) && now - new Cached(path).lastModified > STALE_TEMP_MILLIS) {
+                        delete(path);
+                    }
+                });
+            }
+            long total = payloads.stream().mapToLong(payload -> payload.size).sum();
+            if (total <= maxSize) return;
+            payloads.sort(Comparator.comparingLong(payload -> payload.lastModified));
+            for (Cached payload : payloads) {
+                if (total <= maxSize) break;
+                if (delete(payload.path)) total -= payload.size;
+            }
+        }
+    }
+
+    /**
+     * opens cached payload of file, marks it as recently used
+     * @return entry with cached data or null if file is not cached
+     */
+    private CompressedEntry lookup(Path payload, FileTreeScanner.ScannedFile file) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(payload, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() >= HEADER_SIZE) ZipIndex.readFully(channel, header, 0);
+            long compressedSize = header.getLong(24);
+            if (header.getInt(0) != MAGIC || header.getLong(16) != file.size
+                    || channel.size() != HEADER_SIZE + compressedSize) {
+                channel.close();
+                delete(payload); // corrupted
+                return null;
+            }
+            touch(payload);
+            return new CompressedEntry(file.name, ZipEntry.DEFLATED, header.getLong(8), file.size, compressedSize,
+                    ZipFormat.javaToDosTime(file.lastModified), new Payload(channel, compressedSize, null));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * deflates file to temporary file in cache and moves it to cache
+     * if file was not changed while it was deflated
+     */
+    private CompressedEntry store(Path payload, String hash, FileTreeScanner.ScannedFile file,
+                                  DeflateSettings settings, ArchiveMetrics metrics) throws IOException {
+        Files.createDirectories(payload.getParent());
+        Path temp = Files.createTempFile(payload.getParent(), hash, TEMP_SUFFIX);
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(HEADER_SIZE);
+            MessageDigest digest = newDigest();
+            CompressedEntry entry;
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file.path), digest)) {
+                entry = EntryCompressor.compressTo(file.name, file.lastModified, in, settings, unclosable(channel),
+                        metrics);
+            } catch (IOException e) {
+                throw new IOException("Exception while compressing file: " + file.path + "\n" + e.getMessage(), e);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(0).putLong(entry.crc).putLong(entry.size).putLong(entry.compressedSize).flip();
+            while (header.hasRemaining()) channel.write(header, header.position());
+            Path unmoved = temp;
+            if (HexFormat.of().formatHex(digest.digest()).equals(hash)) unmoved = move(temp, payload);
+            return entry.withData(new Payload(channel, entry.compressedSize, unmoved));
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) channel.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * moves payload to cache
+     * @return null if payload was moved or temporary file if it could not be moved
+     */
+    private static Path move(Path temp, Path payload) {
+        try {
+            try {
+                Files.move(temp, payload, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, payload, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return null;
+        } catch (IOException e) {
+            return temp; // payload is being read by other process, it has the same content
+        }
+    }
+
+    private static String hash(FileTreeScanner.ScannedFile file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = CodecPool.buffer();
+        try (InputStream in = Files.newInputStream(file.path)) {
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, length);
+            }
+        } catch (IOException e) {
+            throw new IOException("Exception while hashing file: " + file.path + "\n" + e.getMessage(), e);
+        } finally {
+            CodecPool.release(buffer);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static OutputStream unclosable(FileChannel channel) {
+        return new FilterOutputStream(Channels.newOutputStream(channel)) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null; // cache is being trimmed by other archive of this process
+        }
+    }
+
+    private static void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // payload is only evicted a bit earlier
+        }
+    }
+
+    private static boolean delete(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            return false; // payload is open by other process
+        }
+    }
+
+    /**
+     * cached payload found when cache is trimmed
+     */
+    private static class Cached {
+        final Path path;
+        final long size;
+        final long lastModified;
+
+        Cached(Path path) {
+            this.path = path;
+            long size = 0;
+            long lastModified = 0;
+            try {
+                size = Files.size(path);
+                lastModified = Files.getLastModifiedTime(path).toMillis();
+            } catch (IOException ignored) {
+                // payload was deleted by other process
+            }
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * payload read from opened cache file, temporary file which was not moved to cache is deleted when it is used
+     */
+    private static class Payload implements CompressedEntry.Data {
+        private final FileChannel channel;
+        private final long length;
+        private final Path temp;
+
+        Payload(FileChannel channel, long length, Path temp) {
+            this.channel = channel;
+            this.length = length;
+            this.temp = temp;
+        }
+
+        @Override
+        public void transferTo(WritableByteChannel target) throws IOException {
+            long position = HEADER_SIZE;
+            long end = HEADER_SIZE + length;
+            while (position < end) {
+                long n = channel.transferTo(position, end - position, target);
+                if (n <= 0) throw new IOException("Unexpected end of cached payload");
+                position += n;
+            }
+        }
+
+        @Override
+        public void discard() {
+            try {
+                channel.close();
+                if (temp != null) Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // temporary file is deleted when cache is trimmed
+            }
+        }
+    }
+
+}
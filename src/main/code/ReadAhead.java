@@ -0,0 +1,229 @@
+package code;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * reads files that are going to be compressed by pool of reader threads into large reusable chunks,
+ * so storage is read while previous files are compressed.
+ * Number of chunks is limited: readers wait for chunks released by compression, so memory stays bounded,
+ * only file which is being compressed may get chunks above the limit, so it never waits for files after it
+ */
+final class ReadAhead implements Closeable {
+
+    static final int CHUNK_SIZE = 256 * 1024;
+    /**
+     * how many read chunks of one file may wait for compression
+     */
+    private static final int CHUNKS_PER_FILE = 4;
+    /**
+     * how often reader waiting for chunk checks if its file is being compressed
+     */
+    private static final long WAIT_MILLIS = 10;
+
+    private final ExecutorService readers;
+    private final Semaphore permits;
+    private final BlockingQueue<byte[]> free;
+
+    /**
+     * @param readers - number of files read at once
+     * @param memory - size of chunks in bytes
+     */
+    ReadAhead(int readers, long memory) {
+        int chunks = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memory / CHUNK_SIZE));
+        this.readers = Executors.newFixedThreadPool(readers, task -> {
+            Thread thread = new Thread(task, "read-ahead");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.permits = new Semaphore(chunks);
+        this.free = new ArrayBlockingQueue<>(chunks);
+    }
+
+    /**
+     * starts reading file, files are read in the order they are passed
+     * @return stream of file data, it must be closed even if it is not read
+     */
+    Prefetch prefetch(Path file) {
+        Prefetch prefetch = new Prefetch();
+        prefetch.reader = readers.submit(() -> prefetch.read(file));
+        return prefetch;
+    }
+
+    /**
+     * stops readers, streams of files must be closed before
+     */
+    @Override
+    public void close() {
+        readers.shutdownNow();
+    }
+
+    /**
+     * takes free chunk, waits for it while limit is reached unless file is being compressed
+     */
+    private Chunk acquire(Prefetch prefetch) throws InterruptedException {
+        while (!permits.tryAcquire(WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (prefetch.wanted) return new Chunk(new byte[CHUNK_SIZE], false);
+        }
+        byte[] data = free.poll();
+        return new Chunk(data != null ? data : new byte[CHUNK_SIZE], true);
+    }
+
+    private void release(Chunk chunk) {
+        if (!chunk.pooled) return;
+        free.offer(chunk.data);
+        permits.release();
+    }
+
+    /**
+     * part of file, chunk without data marks end of file or error
+     */
+    private static final class Chunk {
+
+        static final Chunk END = new Chunk(null, false);
+
+        final byte[] data;
+        final boolean pooled;
+        int length;
+        IOException error;
+
+        Chunk(byte[] data, boolean pooled) {
+            this.data = data;
+            this.pooled = pooled;
+        }
+
+        static Chunk failed(IOException error) {
+            Chunk chunk = new Chunk(null, false);
+            chunk.error = error;
+            return chunk;
+        }
+
+    }
+
+    /**
+     * data of file read ahead, stream is read by one thread
+     */
+    final class Prefetch extends InputStream {
+
+        private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(CHUNKS_PER_FILE + 1);
+        private Future<?> reader;
+        /**
+         * set when file is compressed, its reader doesn't wait for chunks then
+         */
+        private volatile boolean wanted;
+        private volatile boolean closed;
+        private Chunk current;
+        private int position;
+
+        private void read(Path file) {
+            Chunk chunk = null;
+            try {
+                try (InputStream in = Files.newInputStream(file)) {
+                    while (true) {
+                        chunk = acquire(this);
+                        chunk.length = in.readNBytes(chunk.data, 0, chunk.data.length);
+                        if (chunk.length == 0) break;
+                        chunks.put(chunk);
+                        boolean last = chunk.length < chunk.data.length;
+                        chunk = null;
+                        if (last) break;
+                    }
+                    if (chunk != null) release(chunk);
+                    chunk = null;
+                    chunks.put(Chunk.END);
+                } catch (IOException e) {
+                    if (chunk != null) release(chunk);
+                    chunk = null;
+                    chunks.put(Chunk.failed(e));
+                }
+            } catch (InterruptedException e) {
+                if (chunk != null) release(chunk); // chunk is not put in queue when put is interrupted
+            } finally {
+                if (closed) drain();
+            }
+        }
+
+        /**
+         * returns first bytes of file without reading them
+         * @param size - maximal number of bytes
+         */
+        byte[] sample(int size) throws IOException {
+            if (!next()) return new byte[0];
+            return Arrays.copyOfRange(current.data, position, position + Math.min(size, current.length - position));
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!next()) return -1;
+            return current.data[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if (!next()) return -1;
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current.data, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+
+        /**
+         * makes current chunk one with unread data, waits for reader
+         * @return false at the end of file
+         */
+        private boolean next() throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            if (current != null && position < current.length) return true;
+            if (current == Chunk.END) return false;
+            if (current != null) release(current);
+            wanted = true;
+            try {
+                current = chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                current = null;
+                throw new InterruptedIOException("Interrupted while reading file");
+            }
+            position = 0;
+            if (current.error != null) {
+                IOException error = current.error;
+                current = Chunk.END;
+                throw error;
+            }
+            return current != Chunk.END;
+        }
+
+        /**
+         * stops reading and releases chunks
+         */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            reader.cancel(true);
+            if (current != null && current != Chunk.END) release(current);
+            current = Chunk.END;
+            drain();
+        }
+
+        private void drain() {
+            Chunk chunk;
+            while ((chunk = chunks.poll()) != null) release(chunk);
+        }
+
+    }
+
+}
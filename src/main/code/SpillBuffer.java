@@ -0,0 +1,123 @@
+package code;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * output stream that keeps data in memory until threshold is reached
+ * and then moves it to temporary spill file; byte buffers are written to spill file through its channel.
+ * Spill file is readable by owner only and is deleted by {@link #discard}
+ */
+class SpillBuffer extends OutputStream implements WritableByteChannel, CompressedEntry.Data {
+
+    private final int threshold;
+    private byte[] bytes = new byte[1024];
+    private int count;
+    private Path spillFile;
+    private FileOutputStream spillStream;
+    private long size;
+
+    SpillBuffer(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (spillStream == null && count + len > threshold) spill();
+        if (spillStream != null) {
+            spillStream.write(b, off, len);
+        } else {
+            if (count + len > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + len));
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+        size += len;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        if (spillStream == null && count + length > threshold) spill();
+        if (spillStream != null) {
+            while (src.hasRemaining()) spillStream.getChannel().write(src);
+        } else {
+            if (count + length > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + length));
+            src.get(bytes, count, length);
+            count += length;
+        }
+        size += length;
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    /**
+     * moves data collected in memory to temporary file
+     */
+    private void spill() throws IOException {
+        spillFile = Files.createTempFile("zip-entry", ".tmp");
+        spillStream = new FileOutputStream(spillFile.toFile());
+        spillStream.write(bytes, 0, count);
+        bytes = null;
+        count = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (spillStream != null) spillStream.close();
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * writes collected data to channel
+     */
+    @Override
+    public void transferTo(WritableByteChannel target) throws IOException {
+        if (spillFile == null) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, count);
+            while (buffer.hasRemaining()) target.write(buffer);
+            return;
+        }
+        close();
+        try (FileChannel in = FileChannel.open(spillFile, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < size) position += in.transferTo(position, size - position, target);
+        }
+    }
+
+    /**
+     * releases memory and deletes spill file
+     */
+    @Override
+    public void discard() {
+        bytes = null;
+        if (spillFile != null) {
+            try {
+                close();
+                Files.deleteIfExists(spillFile);
+            } catch (IOException ignored) {
+                // file is left in temporary folder
+            }
+        }
+    }
+
+}
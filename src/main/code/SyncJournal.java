@@ -0,0 +1,122 @@
+package code;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * journal of sync extraction kept in destination folder: every entry unpacked completely is appended to it,
+ * so extraction that was interrupted continues without checking crc of files unpacked before.
+ * Journal of other archive (of different size or modification time) is ignored, journal is deleted
+ * when extraction is finished. Every line is hex crc and name of entry separated by tab,
+ * backslash and line feed in names are escaped
+ */
+final class SyncJournal implements Closeable {
+
+    static final String PREFIX = ".zip-sync-";
+
+    private final Path file;
+    /**
+     * crc of entries unpacked by interrupted extraction by their names
+     */
+    private final Map<String, Long> unpacked = new HashMap<>();
+    private final BufferedWriter writer;
+
+    private SyncJournal(Path file, String header) throws IOException {
+        this.file = file;
+        String content = Files.exists(file) ? Files.readString(file, StandardCharsets.UTF_8) : "";
+        if (content.startsWith(header + "\n")) {
+            String[] lines = content.split("\n");
+            // last line is not finished if extraction was interrupted while it was written
+            int complete = content.endsWith("\n") ? lines.length : lines.length - 1;
+            for (int i = 1; i < complete; i++) {
+                int tab = lines[i].indexOf('\t');
+                if (tab <= 0) continue;
+                try {
+                    unpacked.put(unescape(lines[i].substring(tab + 1)), Long.parseLong(lines[i].substring(0, tab), 16));
+                } catch (NumberFormatException ignored) {
+                    // damaged line
+                }
+            }
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            if (!content.endsWith("\n")) writer.write('\n');
+        } else {
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            writer.write(header + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * opens journal of extraction of archive to folder, continuing journal of interrupted extraction
+     */
+    static SyncJournal open(Path destDir, Path archive) throws IOException {
+        Path file = destDir.resolve(PREFIX + archive.getFileName() + ".journal");
+        String header = "archive " + Files.size(archive) + " " + Files.getLastModifiedTime(archive).toMillis();
+        try {
+            return new SyncJournal(file, header);
+        } catch (IOException e) {
+            throw new IOException("Exception while opening journal: " + file + "\n" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * returns true if entry was unpacked by interrupted extraction
+     */
+    boolean isUnpacked(ArchiveEntry entry) {
+        Long crc = unpacked.get(entry.name);
+        return crc != null && crc == entry.crc;
+    }
+
+    /**
+     * appends entry which is unpacked completely
+     */
+    synchronized void unpacked(ArchiveEntry entry) throws IOException {
+        writer.write(Long.toHexString(entry.crc) + "\t" + escape(entry.name) + "\n");
+        writer.flush();
+    }
+
+    /**
+     * escapes backslash and line feed in name, so name is kept on one line
+     */
+    private static String escape(String name) {
+        if (name.indexOf('\\') < 0 && name.indexOf('\n') < 0) return name;
+        return name.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    /**
+     * restores name escaped by {@link #escape(String)}
+     */
+    private static String unescape(String line) {
+        if (line.indexOf('\\') < 0) return line;
+        StringBuilder name = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                c = line.charAt(++i) == 'n' ? '\n' : line.charAt(i);
+            }
+            name.append(c);
+        }
+        return name.toString();
+    }
+
+    /**
+     * closes and deletes journal as extraction is finished
+     */
+    void finish() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+}
@@ -0,0 +1,81 @@
+package code;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * constants and helpers of zip file format shared by archive writer and reader
+ */
+final class ZipFormat {
+
+    static final int LOCAL_HEADER_SIG = 0x04034b50;
+    static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    static final int END_SIG = 0x06054b50;
+    static final int ZIP64_END_SIG = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_SIZE = 22;
+    static final int ZIP64_END_SIZE = 56;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+
+    static final int END_MAX_COMMENT = 0xffff;
+
+    static final int VERSION = 20;
+    static final int ZIP64_VERSION = 45;
+    static final int UTF8_FLAG = 0x800;
+    /**
+     * crc and sizes of entry are not in its local header but in data descriptor after its data
+     */
+    static final int DATA_DESCRIPTOR_FLAG = 0x8;
+
+    /**
+     * id of zip64 extra field, which keeps sizes and offset that don't fit in 4 bytes
+     */
+    static final int ZIP64_EXTRA_ID = 0x0001;
+    /**
+     * value of 4 byte size or offset (or of 2 byte entry count) which is kept in zip64 extra field / zip64 end record
+     */
+    static final long ZIP64_MAGIC = 0xffffffffL;
+    static final int ZIP64_MAGIC_COUNT = 0xffff;
+
+    private ZipFormat() {
+    }
+
+    /**
+     * returns true if entry of this uncompressed size may need zip64 sizes:
+     * deflated data can be a bit bigger than uncompressed, size less than 0 means size is unknown
+     */
+    static boolean mayNeedZip64(long size) {
+        return size < 0 || size + (size >> 8) + 1024 >= ZIP64_MAGIC;
+    }
+
+    /**
+     * converts java time (milliseconds) to MS-DOS date and time used in zip headers
+     */
+    static long javaToDosTime(long time) {
+        LocalDateTime ldt = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        int year = ldt.getYear() - 1980;
+        if (year < 0) return (1 << 21) | (1 << 16); // 1980-01-01 00:00:00
+        if (year > 127) year = 127;
+        return ((long) year << 25 | ldt.getMonthValue() << 21 | ldt.getDayOfMonth() << 16
+                | ldt.getHour() << 11 | ldt.getMinute() << 5 | ldt.getSecond() >> 1) & 0xffffffffL;
+    }
+
+    /**
+     * converts MS-DOS date and time used in zip headers to java time (milliseconds)
+     */
+    static long dosToJavaTime(long dosTime) {
+        LocalDateTime ldt = LocalDateTime.of((int) ((dosTime >> 25) & 0x7f) + 1980, 1, 1, 0, 0)
+                .plusMonths(((dosTime >> 21) & 0x0f) - 1)
+                .plusDays(((dosTime >> 16) & 0x1f) - 1)
+                .plusHours((dosTime >> 11) & 0x1f)
+                .plusMinutes((dosTime >> 5) & 0x3f)
+                .plusSeconds((dosTime << 1) & 0x3e);
+        return ldt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+}
@@ -0,0 +1,378 @@
+package code;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+import static code.ZipFormat.*;
+
+/**
+ * reads central directory of archive and gives access to data of every entry by its offset:
+ * entry is found by name without scanning the archive, and its data is read right after its local header;
+ * data of different entries can be read from several threads at the same time.
+ * Central directory is mapped to memory when parsed, parsed directories of recently opened archives are cached;
+ * zip64 archives (over 4 GB or with more than 65535 entries) are supported
+ */
+class ZipIndex implements Closeable {
+
+    /**
+     * stored entries of this size or bigger are copied by {@link #transferStored}
+     */
+    static final long MAP_THRESHOLD = 256 * 1024;
+    private static final long MAX_MAPPED_REGION = 64 * 1024 * 1024;
+
+    /**
+     * total number of entries of cached directories, entry takes about 200 bytes of heap
+     */
+    static final int CACHE_MAX_ENTRIES = 200_000;
+    private static final ZipIndexCache CACHE = new ZipIndexCache(CACHE_MAX_ENTRIES);
+
+    private final FileChannel channel;
+    private final Directory directory;
+
+    private ZipIndex(FileChannel channel, Directory directory) {
+        this.channel = channel;
+        this.directory = directory;
+    }
+
+    /**
+     * opens archive and reads its central directory or takes it from cache
+     */
+    static ZipIndex open(Path archive) throws IOException {
+        Path path = archive.toAbsolutePath().normalize();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            long size = channel.size();
+            Directory directory = CACHE.get(path, lastModified, size);
+            if (directory == null) {
+                directory = readCentralDirectory(channel);
+                CACHE.put(path, lastModified, size, directory);
+            }
+            return new ZipIndex(channel, directory);
+        } catch (IOException e) {
+            channel.close();
+            throw new IOException("Exception while reading central directory: " + archive + "\n" + e.getMessage(), e);
+        }
+    }
+
+    List<ArchiveEntry> entries() {
+        return directory.entries;
+    }
+
+    /**
+     * returns entry with given name or null if there is no such entry
+     */
+    ArchiveEntry getEntry(String name) {
+        return directory.entriesByName.get(name);
+    }
+
+    /**
+     * returns stream of uncompressed data of entry with given name
+     */
+    InputStream getInputStream(String name) throws IOException {
+        ArchiveEntry entry = getEntry(name);
+        if (entry == null) throw new NoSuchFileException("No such entry: " + name);
+        return getInputStream(entry);
+    }
+
+    /**
+     * returns entry that copies compressed data of given entry as is, without inflating it;
+     * name not flagged as utf-8 is copied as is too
+     */
+    CompressedEntry rawEntry(ArchiveEntry entry) {
+        return new CompressedEntry(entry.name, entry.rawName, entry.method, entry.crc, entry.size,
+                entry.compressedSize, entry.dosTime, target -> transferRaw(entry, target));
+    }
+
+    /**
+     * writes compressed data of entry to channel
+     */
+    void transferRaw(ArchiveEntry entry, WritableByteChannel target) throws IOException {
+        long position = dataOffset(entry);
+        long end = position + entry.compressedSize;
+        while (position < end) {
+            long n = channel.transferTo(position, end - position, target);
+            if (n <= 0) throw new IOException("Unexpected end of archive: " + entry.name);
+            position += n;
+        }
+    }
+
+    /**
+     * copies data of stored entry to file without copying it to java heap:
+     * data is mapped and written from the mapped region, crc is calculated on the same region;
+     * when crc is not verified, data is copied with {@link FileChannel#transferTo}
+     */
+    void transferStored(ArchiveEntry entry, FileChannel target, boolean verifyCrc) throws IOException {
+        if (entry.method != ZipEntry.STORED) throw new IllegalArgumentException("Entry is not stored: " + entry.name);
+        if (!verifyCrc) {
+            transferRaw(entry, target);
+            return;
+        }
+        CRC32 crc = new CRC32();
+        long position = dataOffset(entry);
+        long end = position + entry.compressedSize;
+        if (end > channel.size()) throw new IOException("Unexpected end of archive: " + entry.name);
+        while (position < end) {
+            long length = Math.min(MAX_MAPPED_REGION, end - position);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            crc.update(region.duplicate());
+            while (region.hasRemaining()) target.write(region);
+            position += length;
+        }
+        if (crc.getValue() != entry.crc) throw new IOException("Invalid entry CRC: " + entry.name);
+    }
+
+    /**
+     * inflates data of entry into buffer which is overwritten again and again
+     * and checks crc, size and compressed size of entry
+     * @return time spent in inflating in nanoseconds
+     */
+    long verify(ArchiveEntry entry, byte[] buffer) throws IOException {
+        if ((entry.flags & 1) != 0) throw new IOException("Encrypted entry: " + entry.name);
+        if (entry.method != ZipEntry.STORED && entry.method != ZipEntry.DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method + ": " + entry.name);
+        }
+        long start = System.nanoTime();
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream raw = new ChannelInputStream(channel, dataOffset(entry), entry.compressedSize)) {
+            if (entry.method == ZipEntry.STORED) {
+                int length;
+                while ((length = raw.read(buffer)) >= 0) {
+                    crc.update(buffer, 0, length);
+                    size += length;
+                }
+            } else {
+                Inflater inflater = CodecPool.inflater();
+                byte[] input = CodecPool.buffer();
+                try {
+                    while (!inflater.finished()) {
+                        if (inflater.needsInput()) {
+                            int length = raw.read(input);
+                            if (length < 0) throw new IOException("Unexpected end of entry data: " + entry.name);
+                            inflater.setInput(input, 0, length);
+                        } else if (inflater.needsDictionary()) {
+                            throw new IOException("Invalid deflate data: " + entry.name);
+                        }
+                        int length = inflater.inflate(buffer);
+                        crc.update(buffer, 0, length);
+                        size += length;
+                    }
+                    if (inflater.getBytesRead() != entry.compressedSize) {
+                        throw new IOException("Invalid entry compressed size: " + entry.name);
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Invalid deflate data: " + entry.name + " (" + e.getMessage() + ")", e);
+                } finally {
+                    CodecPool.release(inflater);
+                    CodecPool.release(input);
+                }
+            }
+        }
+        if (size != entry.size) throw new IOException("Invalid entry size: " + entry.name);
+        if (crc.getValue() != entry.crc) throw new IOException("Invalid entry CRC: " + entry.name);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * returns stream of uncompressed entry data
+     */
+    InputStream getInputStream(ArchiveEntry entry) throws IOException {
+        InputStream raw = new ChannelInputStream(channel, dataOffset(entry), entry.compressedSize);
+        if (entry.method == ZipEntry.STORED) return raw;
+        if (entry.method != ZipEntry.DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method + ": " + entry.name);
+        }
+        Inflater inflater = CodecPool.inflater();
+        return new InflaterInputStream(raw, inflater, CodecPool.BUFFER_SIZE) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                super.close();
+                CodecPool.release(inflater);
+            }
+        };
+    }
+
+    /**
+     * returns position of entry data, which follows local header
+     */
+    long dataOffset(ArchiveEntry entry) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, entry.localHeaderOffset);
+        if (header.getInt(0) != LOCAL_HEADER_SIG) throw new IOException("Invalid local header: " + entry.name);
+        return entry.localHeaderOffset + LOCAL_HEADER_SIZE
+                + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * parses central directory, for zip64 archives its size, offset and number of entries are taken
+     * from zip64 end of central directory record, and sizes and offsets of entries from their zip64 extra fields
+     */
+    private static Directory readCentralDirectory(FileChannel channel) throws IOException {
+        long endPosition = findEnd(channel);
+        ByteBuffer end = ByteBuffer.allocate(END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, end, endPosition);
+        long count = end.getShort(10) & 0xffff;
+        long size = end.getInt(12) & 0xffffffffL;
+        long offset = end.getInt(16) & 0xffffffffL;
+        ByteBuffer zip64End = findZip64End(channel, endPosition);
+        if (zip64End != null) {
+            count = zip64End.getLong(32);
+            size = zip64End.getLong(40);
+            offset = zip64End.getLong(48);
+        }
+        if (offset + size > channel.size()) throw new IOException("Invalid central directory offset");
+        if (size > Integer.MAX_VALUE || count > Integer.MAX_VALUE) {
+            throw new IOException("Central directory is too big: " + size + " bytes");
+        }
+        ByteBuffer cd = channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+        List<ArchiveEntry> entries = new ArrayList<>((int) count);
+        int pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > size || cd.getInt(pos) != CENTRAL_HEADER_SIG) {
+                throw new IOException("Invalid central directory header");
+            }
+            int nameLength = cd.getShort(pos + 28) & 0xffff;
+            int extraLength = cd.getShort(pos + 30) & 0xffff;
+            int commentLength = cd.getShort(pos + 32) & 0xffff;
+            byte[] name = new byte[nameLength];
+            cd.get(pos + CENTRAL_HEADER_SIZE, name);
+            long[] values = {
+                    cd.getInt(pos + 24) & 0xffffffffL, // size
+                    cd.getInt(pos + 20) & 0xffffffffL, // compressed size
+                    cd.getInt(pos + 42) & 0xffffffffL // local header offset
+            };
+            if (values[0] == ZIP64_MAGIC || values[1] == ZIP64_MAGIC || values[2] == ZIP64_MAGIC) {
+                readZip64Extra(cd, pos + CENTRAL_HEADER_SIZE + nameLength, extraLength, values);
+            }
+            int flags = cd.getShort(pos + 8) & 0xffff;
+            entries.add(new ArchiveEntry(new String(name, StandardCharsets.UTF_8),
+                    cd.getShort(pos + 10) & 0xffff,
+                    flags,
+                    cd.getInt(pos + 16) & 0xffffffffL,
+                    values[1],
+                    values[0],
+                    cd.getInt(pos + 12) & 0xffffffffL,
+                    values[2],
+                    (flags & UTF8_FLAG) == 0 && !isAscii(name) ? name : null));
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return new Directory(entries);
+    }
+
+    private static boolean isAscii(byte[] name) {
+        for (byte b : name) {
+            if (b < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * replaces size, compressed size and offset equal to {@link ZipFormat#ZIP64_MAGIC}
+     * with values from zip64 extra field, which keeps them in the same order
+     * @param values - size, compressed size and local header offset
+     */
+    private static void readZip64Extra(ByteBuffer cd, int start, int length, long[] values) throws IOException {
+        int pos = start;
+        while (pos + 4 <= start + length) {
+            int id = cd.getShort(pos) & 0xffff;
+            int dataLength = cd.getShort(pos + 2) & 0xffff;
+            if (id == ZIP64_EXTRA_ID) {
+                int at = pos + 4;
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] != ZIP64_MAGIC) continue;
+                    if (at + 8 > pos + 4 + dataLength) throw new IOException("Invalid zip64 extra field");
+                    values[i] = cd.getLong(at);
+                    at += 8;
+                }
+                return;
+            }
+            pos += 4 + dataLength;
+        }
+        throw new IOException("Zip64 extra field not found");
+    }
+
+    /**
+     * finds position of end of central directory record searching from the end of archive
+     */
+    private static long findEnd(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int length = (int) Math.min(fileSize, END_SIZE + END_MAX_COMMENT);
+        ByteBuffer tail = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, tail, fileSize - length);
+        for (int pos = length - END_SIZE; pos >= 0; pos--) {
+            if (tail.getInt(pos) == END_SIG) return fileSize - length + pos;
+        }
+        throw new IOException("End of central directory not found");
+    }
+
+    /**
+     * reads zip64 end of central directory record if its locator precedes end of central directory record
+     * @return zip64 end record or null if archive is not zip64
+     */
+    private static ByteBuffer findZip64End(FileChannel channel, long endPosition) throws IOException {
+        if (endPosition < ZIP64_LOCATOR_SIZE) return null;
+        ByteBuffer locator = ByteBuffer.allocate(ZIP64_LOCATOR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, locator, endPosition - ZIP64_LOCATOR_SIZE);
+        if (locator.getInt(0) != ZIP64_LOCATOR_SIG) return null;
+        long position = locator.getLong(8);
+        if (position < 0 || position + ZIP64_END_SIZE > endPosition) throw new IOException("Invalid zip64 locator");
+        ByteBuffer zip64End = ByteBuffer.allocate(ZIP64_END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, zip64End, position);
+        if (zip64End.getInt(0) != ZIP64_END_SIG) throw new IOException("Invalid zip64 end of central directory");
+        return zip64End;
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) throw new IOException("Unexpected end of archive");
+        }
+    }
+
+    /**
+     * parsed central directory, it doesn't depend on opened archive and can be shared
+     */
+    static class Directory {
+        final List<ArchiveEntry> entries;
+        final Map<String, ArchiveEntry> entriesByName;
+
+        Directory(List<ArchiveEntry> entries) {
+            this.entries = Collections.unmodifiableList(entries);
+            Map<String, ArchiveEntry> byName = new HashMap<>(entries.size() * 4 / 3 + 1);
+            for (ArchiveEntry entry : entries) byName.putIfAbsent(entry.name, entry);
+            this.entriesByName = Collections.unmodifiableMap(byName);
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package code;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * keeps parsed central directories of recently opened archives;
+ * directory is found by path, modification time and size of archive,
+ * so changed archive is parsed again. Cache is limited by total number of entries of its directories,
+ * as entries take the memory: least recently used directories are removed when the limit is exceeded,
+ * directory with more entries than the limit is not cached
+ */
+class ZipIndexCache {
+
+    private final int maxEntries;
+    private final Map<Key, ZipIndex.Directory> directories = new LinkedHashMap<>(16, 0.75f, true);
+    private long entryCount;
+
+    ZipIndexCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    synchronized ZipIndex.Directory get(Path archive, long lastModified, long size) {
+        return directories.get(new Key(archive, lastModified, size));
+    }
+
+    synchronized void put(Path archive, long lastModified, long size, ZipIndex.Directory directory) {
+        if (directory.entries.size() > maxEntries) return;
+        ZipIndex.Directory old = directories.put(new Key(archive, lastModified, size), directory);
+        entryCount += directory.entries.size() - (old == null ? 0 : old.entries.size());
+        Iterator<ZipIndex.Directory> eldest = directories.values().iterator();
+        while (entryCount > maxEntries) {
+            entryCount -= eldest.next().entries.size();
+            eldest.remove();
+        }
+    }
+
+    synchronized void clear() {
+        directories.clear();
+        entryCount = 0;
+    }
+
+    /**
+     * returns number of entries of cached directories
+     */
+    synchronized long getEntryCount() {
+        return entryCount;
+    }
+
+    private static final class Key {
+        private final Path archive;
+        private final long lastModified;
+        private final long size;
+
+        Key(Path archive, long lastModified, long size) {
+            this.archive = archive;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return lastModified == key.lastModified && size == key.size && archive.equals(key.archive);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(archive, lastModified, size);
+        }
+    }
+
+}
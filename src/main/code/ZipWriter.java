@@ -0,0 +1,455 @@
+package code;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+
+import static code.ZipFormat.*;
+
+/**
+ * writes zip archive: local header and data are written when entry is added,
+ * central directory record is collected (in memory and then in temporary file) and written on close;
+ * entry can be added already compressed or streamed, then its local header is updated after data is written
+ * (entry of unknown size that turns out to be bigger than 4 GB gets data descriptor instead);
+ * local headers of archive written to stream can't be updated, so crc and sizes of streamed deflated entries
+ * are written in data descriptor after their data and stored entries are streamed only with known crc.
+ * Sizes and offsets that don't fit in 4 bytes and more than 65535 entries are written in zip64 format
+ */
+class ZipWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * central directory is kept in memory until it reaches this size, then it is moved to temporary file
+     */
+    static final int CENTRAL_DIRECTORY_SPILL_THRESHOLD = 1024 * 1024;
+    private static final int ZIP64_LOCAL_EXTRA_SIZE = 20;
+
+    private final WritableByteChannel channel;
+    /**
+     * same channel as {@link #channel} when archive is written to file, otherwise null
+     */
+    private final FileChannel file;
+    private final ArchiveMetrics metrics;
+    private final boolean fsync;
+    private final SpillBuffer centralDirectory = new SpillBuffer(CENTRAL_DIRECTORY_SPILL_THRESHOLD);
+    private long entryCount;
+    private long position;
+    private long currentOffset = -1;
+    private boolean currentZip64;
+    /**
+     * true if size of entry being written to file was not known when its local header was written
+     */
+    private boolean currentSizeUnknown;
+    /**
+     * crc and size of stored entry streamed to stream which were written in its local header
+     */
+    private long currentCrc;
+    private long currentSize;
+
+    /**
+     * @param fsync - force archive to disk before closing it
+     */
+    ZipWriter(Path archive, ArchiveMetrics metrics, boolean fsync) throws IOException {
+        this(new FileOutputStream(archive.toFile()).getChannel(), metrics, fsync);
+    }
+
+    /**
+     * writes archive to stream, stream is closed when archive is closed
+     */
+    ZipWriter(OutputStream out, ArchiveMetrics metrics) {
+        this(Channels.newChannel(out), metrics, false);
+    }
+
+    private ZipWriter(WritableByteChannel channel, ArchiveMetrics metrics, boolean fsync) {
+        this.channel = channel;
+        this.file = channel instanceof FileChannel ? (FileChannel) channel : null;
+        this.metrics = metrics;
+        this.fsync = fsync;
+    }
+
+    /**
+     * returns true if local headers of streamed entries are updated in place,
+     * otherwise deflated entries are followed by data descriptors and stored ones need crc before they are streamed
+     */
+    boolean isSeekable() {
+        return file != null;
+    }
+
+    /**
+     * writes local header and compressed data of entry
+     */
+    void writeEntry(CompressedEntry entry) throws IOException {
+        Record record = new Record(entry, position, UTF8_FLAG);
+        write(localHeader(record, record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC));
+        long start = System.nanoTime();
+        entry.transferTo(channel);
+        metrics.addTime(ArchiveMetrics.Phase.WRITE, System.nanoTime() - start);
+        metrics.addWritten(record.compressedSize);
+        position += record.compressedSize;
+        addCentralHeader(record);
+    }
+
+    /**
+     * writes local header of entry which crc and sizes are not known yet;
+     * if entry of known size may be bigger than 4 GB, zip64 extra field is reserved in its local header
+     * @param size - uncompressed size of entry or -1 if it is not known
+     * @return stream for compressed data of entry, it must be closed before {@link #endEntry}
+     */
+    OutputStream beginEntry(String name, int method, long time, long size) throws IOException {
+        return beginEntry(name, method, time, size, -1);
+    }
+
+    /**
+     * writes local header of entry, crc and sizes of deflated entry are written after its data
+     * when archive is not seekable
+     * @param size - uncompressed size of entry or -1 if it is not known
+     * @param crc - crc of stored entry, it is needed when archive is not seekable, otherwise -1
+     * @return stream for compressed data of entry, it must be closed before {@link #endEntry}
+     */
+    OutputStream beginEntry(String name, int method, long time, long size, long crc) throws IOException {
+        if (currentOffset >= 0) throw new IllegalStateException("Previous entry is not finished");
+        currentOffset = position;
+        long dosTime = javaToDosTime(time);
+        if (isSeekable()) {
+            // entry of unknown size gets zip64 data descriptor only if it turns out to be big
+            currentZip64 = size >= 0 && mayNeedZip64(size);
+            currentSizeUnknown = size < 0;
+            write(localHeader(new Record(new CompressedEntry(name, method, 0, 0, 0, dosTime, null), position,
+                    UTF8_FLAG), currentZip64));
+        } else if (method == ZipEntry.STORED) {
+            // readers of stream can't find end of stored data without its size
+            if (crc < 0 || size < 0) throw new IllegalStateException("Stored entry can't be streamed without crc");
+            currentCrc = crc;
+            currentSize = size;
+            currentZip64 = size >= ZIP64_MAGIC;
+            write(localHeader(new Record(new CompressedEntry(name, method, crc, size, size, dosTime, null), position,
+                    UTF8_FLAG), currentZip64));
+        } else {
+            currentZip64 = false;
+            write(localHeader(new Record(new CompressedEntry(name, method, 0, 0, 0, dosTime, null), position,
+                    UTF8_FLAG | DATA_DESCRIPTOR_FLAG), false));
+        }
+        return new EntryOutputStream();
+    }
+
+    /**
+     * updates local header of streamed entry with its crc and sizes or writes them in data descriptor
+     */
+    void endEntry(CompressedEntry entry) throws IOException {
+        if (!isSeekable()) {
+            endStreamedEntry(entry);
+            return;
+        }
+        Record record = new Record(entry, currentOffset, UTF8_FLAG);
+        boolean zip64 = currentZip64;
+        currentOffset = -1;
+        if (!zip64 && (record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC)) {
+            if (!currentSizeUnknown) throw new IOException("Entry is bigger than expected: " + entry.name);
+            endBigEntry(entry, record.offset);
+            return;
+        }
+        long start = System.nanoTime();
+        ByteBuffer sizes = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        sizes.putInt((int) record.crc)
+                .putInt((int) (zip64 ? ZIP64_MAGIC : record.compressedSize))
+                .putInt((int) (zip64 ? ZIP64_MAGIC : record.size))
+                .flip();
+        writeAt(sizes, record.offset + 14);
+        if (zip64) {
+            ByteBuffer extra = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            extra.putLong(record.size).putLong(record.compressedSize).flip();
+            writeAt(extra, record.offset + LOCAL_HEADER_SIZE + record.name.length + 4);
+        }
+        metrics.addTime(ArchiveMetrics.Phase.WRITE, System.nanoTime() - start);
+        addCentralHeader(record);
+    }
+
+    /**
+     * finishes entry of unknown size bigger than 4 GB which local header has no room for its sizes:
+     * header is flagged to have data descriptor and its crc and sizes are zeroed,
+     * sizes are written in zip64 data descriptor after data like in archive written to stream
+     */
+    private void endBigEntry(CompressedEntry entry, long offset) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer flags = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+        flags.putShort((short) (UTF8_FLAG | DATA_DESCRIPTOR_FLAG)).flip();
+        writeAt(flags, offset + 6);
+        writeAt(ByteBuffer.allocate(12), offset + 14);
+        metrics.addTime(ArchiveMetrics.Phase.WRITE, System.nanoTime() - start);
+        Record record = new Record(entry, offset, UTF8_FLAG | DATA_DESCRIPTOR_FLAG);
+        writeDescriptor(record);
+        addCentralHeader(record);
+    }
+
+    /**
+     * writes data descriptor of deflated entry streamed to stream,
+     * stored entry is checked to have crc and size written in its local header.
+     * Local header of streamed deflated entry never has zip64 extra field, as its size is unknown when it is written,
+     * so sizes of descriptor are written in 8 bytes exactly when they don't fit in 4 bytes, like
+     * java.util.zip.ZipOutputStream does: readers of stream choose size of descriptor by amount of data they inflated
+     * (java.util.zip.ZipInputStream) or take sizes from zip64 fields of central directory (Info-ZIP, python)
+     */
+    private void endStreamedEntry(CompressedEntry entry) throws IOException {
+        long offset = currentOffset;
+        currentOffset = -1;
+        if (entry.method == ZipEntry.STORED) {
+            if (entry.crc != currentCrc || entry.size != currentSize) {
+                throw new IOException("File was changed while it was archived: " + entry.name);
+            }
+            addCentralHeader(new Record(entry, offset, UTF8_FLAG));
+            return;
+        }
+        Record record = new Record(entry, offset, UTF8_FLAG | DATA_DESCRIPTOR_FLAG);
+        writeDescriptor(record);
+        addCentralHeader(record);
+    }
+
+    /**
+     * writes data descriptor after data of entry, sizes are written in 8 bytes when they don't fit in 4 bytes
+     */
+    private void writeDescriptor(Record record) throws IOException {
+        boolean zip64 = record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC;
+        ByteBuffer descriptor = ByteBuffer.allocate(zip64 ? 24 : 16).order(ByteOrder.LITTLE_ENDIAN);
+        descriptor.putInt(DATA_DESCRIPTOR_SIG).putInt((int) record.crc);
+        if (zip64) descriptor.putLong(record.compressedSize).putLong(record.size);
+        else descriptor.putInt((int) record.compressedSize).putInt((int) record.size);
+        write(descriptor);
+    }
+
+    /**
+     * writes central directory and end of central directory record, forces archive to disk if needed;
+     * zip64 end of central directory record and its locator are written before it when needed
+     */
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            long start = position;
+            long size = centralDirectory.size();
+            long started = System.nanoTime();
+            centralDirectory.transferTo(channel);
+            metrics.addTime(ArchiveMetrics.Phase.WRITE, System.nanoTime() - started);
+            metrics.addWritten(size);
+            position += size;
+            if (entryCount >= ZIP64_MAGIC_COUNT || size >= ZIP64_MAGIC || start >= ZIP64_MAGIC) {
+                ByteBuffer zip64End = ByteBuffer.allocate(ZIP64_END_SIZE + ZIP64_LOCATOR_SIZE)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                zip64End.putInt(ZIP64_END_SIG)
+                        .putLong(ZIP64_END_SIZE - 12) // size of the rest of record
+                        .putShort((short) ZIP64_VERSION)
+                        .putShort((short) ZIP64_VERSION)
+                        .putInt(0) // disk number
+                        .putInt(0) // disk with central directory
+                        .putLong(entryCount)
+                        .putLong(entryCount)
+                        .putLong(size)
+                        .putLong(start)
+                        .putInt(ZIP64_LOCATOR_SIG)
+                        .putInt(0) // disk with zip64 end record
+                        .putLong(position)
+                        .putInt(1); // number of disks
+                write(zip64End);
+            }
+            ByteBuffer end = ByteBuffer.allocate(END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(END_SIG)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) Math.min(entryCount, ZIP64_MAGIC_COUNT))
+                    .putShort((short) Math.min(entryCount, ZIP64_MAGIC_COUNT))
+                    .putInt((int) Math.min(size, ZIP64_MAGIC))
+                    .putInt((int) Math.min(start, ZIP64_MAGIC))
+                    .putShort((short) 0);
+            write(end);
+            if (fsync && file != null) {
+                started = System.nanoTime();
+                file.force(true);
+                metrics.addTime(ArchiveMetrics.Phase.FSYNC, System.nanoTime() - started);
+            }
+        } finally {
+            centralDirectory.discard();
+        }
+    }
+
+    /**
+     * closes archive without central directory after failure, archive is not readable then
+     */
+    void discard() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // archive is deleted or thrown away anyway
+        } finally {
+            centralDirectory.discard();
+        }
+    }
+
+    /**
+     * @param zip64 - write sizes in zip64 extra field
+     */
+    private static ByteBuffer localHeader(Record record, boolean zip64) {
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + record.name.length
+                + (zip64 ? ZIP64_LOCAL_EXTRA_SIZE : 0)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIG)
+                .putShort((short) (zip64 ? ZIP64_VERSION : VERSION))
+                .putShort((short) record.flags)
+                .putShort((short) record.method)
+                .putInt((int) record.dosTime)
+                .putInt((int) record.crc)
+                .putInt((int) (zip64 ? ZIP64_MAGIC : record.compressedSize))
+                .putInt((int) (zip64 ? ZIP64_MAGIC : record.size))
+                .putShort((short) record.name.length)
+                .putShort((short) (zip64 ? ZIP64_LOCAL_EXTRA_SIZE : 0))
+                .put(record.name);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID)
+                    .putShort((short) (ZIP64_LOCAL_EXTRA_SIZE - 4))
+                    .putLong(record.size)
+                    .putLong(record.compressedSize);
+        }
+        return header;
+    }
+
+    /**
+     * adds central directory record of entry, values that don't fit in 4 bytes are written in zip64 extra field
+     */
+    private void addCentralHeader(Record record) throws IOException {
+        boolean zip64Size = record.size >= ZIP64_MAGIC;
+        boolean zip64CompressedSize = record.compressedSize >= ZIP64_MAGIC;
+        boolean zip64Offset = record.offset >= ZIP64_MAGIC;
+        int extraLength = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+        if (extraLength > 0) extraLength += 4;
+        int version = extraLength > 0 ? ZIP64_VERSION : VERSION;
+        ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + record.name.length + extraLength)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(CENTRAL_HEADER_SIG)
+                .putShort((short) version)
+                .putShort((short) version)
+                .putShort((short) record.flags)
+                .putShort((short) record.method)
+                .putInt((int) record.dosTime)
+                .putInt((int) record.crc)
+                .putInt((int) (zip64CompressedSize ? ZIP64_MAGIC : record.compressedSize))
+                .putInt((int) (zip64Size ? ZIP64_MAGIC : record.size))
+                .putShort((short) record.name.length)
+                .putShort((short) extraLength)
+                .putShort((short) 0) // comment length
+                .putShort((short) 0) // disk number
+                .putShort((short) 0) // internal attributes
+                .putInt(0) // external attributes
+                .putInt((int) (zip64Offset ? ZIP64_MAGIC : record.offset))
+                .put(record.name);
+        if (extraLength > 0) {
+            header.putShort((short) ZIP64_EXTRA_ID).putShort((short) (extraLength - 4));
+            if (zip64Size) header.putLong(record.size);
+            if (zip64CompressedSize) header.putLong(record.compressedSize);
+            if (zip64Offset) header.putLong(record.offset);
+        }
+        centralDirectory.write(header.array(), 0, header.position());
+        entryCount++;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        transfer(buffer);
+    }
+
+    /**
+     * writes remaining bytes of buffer at current position of archive
+     */
+    private void transfer(ByteBuffer buffer) throws IOException {
+        long start = System.nanoTime();
+        metrics.addWritten(buffer.remaining());
+        while (buffer.hasRemaining()) position += channel.write(buffer);
+        metrics.addTime(ArchiveMetrics.Phase.WRITE, System.nanoTime() - start);
+    }
+
+    /**
+     * writes buffer at given position of archive file without changing current position
+     */
+    private void writeAt(ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) at += file.write(buffer, at);
+    }
+
+    /**
+     * buffered stream writing data of streamed entry right into archive,
+     * data of byte buffers (for example, direct ones) is written to archive channel as is
+     */
+    private class EntryOutputStream extends OutputStream implements WritableByteChannel {
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) flush();
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!buffer.hasRemaining()) flush();
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (buffer.position() > 0) flush();
+            int length = src.remaining();
+            transfer(src);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ZipWriter.this.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * entry information needed for headers, name is encoded in utf-8 unless raw name is copied
+     */
+    private static class Record {
+        final byte[] name;
+        final int flags;
+        final int method;
+        final long crc;
+        final long size;
+        final long compressedSize;
+        final long dosTime;
+        final long offset;
+
+        Record(CompressedEntry entry, long offset, int flags) {
+            this.name = entry.rawName != null ? entry.rawName : entry.name.getBytes(StandardCharsets.UTF_8);
+            this.flags = entry.rawName != null ? flags & ~UTF8_FLAG : flags;
+            this.method = entry.method;
+            this.crc = entry.crc;
+            this.size = entry.size;
+            this.compressedSize = entry.compressedSize;
+            this.dosTime = entry.dosTime;
+            this.offset = offset;
+        }
+    }
+
+}
@@ -2,19 +2,47 @@ package code;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class Tests {
@@ -43,6 +71,11 @@ public class Tests {
     private static final String wrongArchName1 = "na/me";
     private static final String wrongArchName2 = "na:me";
     private static String[] args;
+    /**
+     * temporary folder of test, it is deleted after test
+     */
+    @TempDir
+    Path temp;
 
     @BeforeEach
     void setUpStreams() {
@@ -111,6 +144,92 @@ public class Tests {
         return true;
     }
 
+    /**
+     * creates folder input in temporary folder with text files, names and contents of files go in pairs;
+     * existing files are overwritten
+     */
+    private Path input(String... files) throws IOException {
+        Path input = Files.createDirectories(temp.resolve("input"));
+        for (int i = 0; i < files.length; i += 2) Files.writeString(input.resolve(files[i]), files[i + 1]);
+        return input;
+    }
+
+    /**
+     * zips files and folders to archive in temporary folder
+     */
+    private Path zip(String name, ArchiveOptions options, Path... paths) throws IOException {
+        Path archive = temp.resolve(name);
+        try (ArchiveWriter writer = new ArchiveWriter(archive, options)) {
+            writer.add(paths);
+        }
+        return archive;
+    }
+
+    /**
+     * returns stream of given number of zero bytes
+     */
+    private static InputStream zeros(long size) {
+        return new InputStream() {
+            private long left = size;
+
+            @Override
+            public int read() {
+                return read(new byte[1], 0, 1) < 0 ? -1 : 0;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                if (left == 0) return -1;
+                int count = (int) Math.min(length, left);
+                Arrays.fill(bytes, offset, offset + count, (byte) 0);
+                left -= count;
+                return count;
+            }
+        };
+    }
+
+    /**
+     * returns stream writing to new file, blocks of zero bytes are skipped, so they take no disk space
+     */
+    private static OutputStream sparse(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        return new OutputStream() {
+            private long position;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                for (int i = offset; i < offset + length; i++) {
+                    if (bytes[i] == 0) continue;
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+                    while (buffer.hasRemaining()) channel.write(buffer, position + buffer.position() - offset);
+                    break;
+                }
+                position += length;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try (channel) {
+                    channel.write(ByteBuffer.allocate(1), position - 1); // file ends with the last block
+                }
+            }
+        };
+    }
+
+    /**
+     * returns central directory with given number of entries
+     */
+    private static ZipIndex.Directory directory(int entries) {
+        List<ArchiveEntry> list = new ArrayList<>();
+        for (int i = 0; i < entries; i++) list.add(new ArchiveEntry(i + ".txt", 0, 0, 0, 0, 0, 0, 0));
+        return new ZipIndex.Directory(list);
+    }
+
     @Test
     public void testZipSpecifiedFiles() throws IOException {
         args = new String[]{pic1, video, "-p", pathToOutputs, "test1"};
@@ -128,6 +247,36 @@ public class Tests {
         assertTrue(checkArchive(pathToOutputs + "test2.zip", expected));
     }
 
+    @Test
+    public void testZipParallel() throws IOException {
+        args = new String[]{"-j", "4", ch, dir, audio, file3, pic3, pic1, video, "-p", pathToOutputs, "test4"};
+        Main.main(args);
+        String[] expected = {"ch\\a\\b/", "ch\\a\\text.txt", "dir\\file2.txt", "dir\\indir\\file1.txt",
+                "dir\\pic2.png", "audio.mp3", "file3.txt", "pic3.png", "pic1.png", "video.mp4"};
+        assertTrue(checkArchive(pathToOutputs + "test4.zip", expected));
+    }
+
+    @Test
+    public void testZipStoresIncompressibleFiles() throws IOException {
+        args = new String[]{pic1, file3, "-p", pathToOutputs, "test5"};
+        Main.main(args);
+        try (ZipFile zipFile = new ZipFile(pathToOutputs + "test5.zip")) {
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("pic1.png").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("file3.txt").getMethod());
+        }
+    }
+
+    @Test
+    public void testZipUpdate() throws IOException {
+        args = new String[]{pic1, file3, "-p", pathToOutputs, "test6"};
+        Main.main(args);
+        args = new String[]{"-update", pic1, file3, pic3, "-p", pathToOutputs, "test6"};
+        Main.main(args);
+        assertTrue(errContent.toString().contains("Copying unchanged file: pic1.png"));
+        String[] expected = {"pic1.png", "file3.txt", "pic3.png"};
+        assertTrue(checkArchive(pathToOutputs + "test6.zip", expected));
+    }
+
     @Test
     public void testZipWrongPath() {
         args = new String[]{ch, dir, audio, file3, pic3, pic1, video, "-p", wrongPath1, "test3"};
@@ -186,7 +335,6 @@ public class Tests {
                 Archive name set: name.zip\r
                 Path set: D:\\Projects\\Java\\zip-archiver-java\\src\\test\\resources\\input\\video.mp4\\\r
                 Searching file: D:\\Projects\\Java\\zip-archiver-java\\src\\test\\resources\\input\\pic1.png\r
-                Total file size: 2 kB\r
                 Exception while archiving
                 Exception while adding files to zip:
                 D:\\Projects\\Java\\zip-archiver-java\\src\\test\\resources\\input\\video.mp4\\name.zip (Системе не удается найти указанный путь)\r
@@ -204,6 +352,504 @@ public class Tests {
         assertTrue(checkUnzipped(expected));
     }
 
+    @Test
+    public void testUnzipParallel() {
+        args = new String[]{"-u", "-j", "4", "-p", pathToOutputs + "unzipped\\", "src/test/resources/output/test2.zip"};
+        Main.main(args);
+        String[] expected = {ch, dir, audio, file3, pic1, pic3, video};
+        assertTrue(checkUnzipped(expected));
+    }
+
+    @Test
+    public void testList() {
+        args = new String[]{"-l", "src/test/resources/output/test2.zip"};
+        Main.main(args);
+        String out = outContent.toString();
+        assertTrue(out.contains("ch\\a\\text.txt") && out.contains("video.mp4"));
+    }
+
+    @Test
+    public void testEntryFilter() {
+        EntryFilter filter = new EntryFilter(List.of("dir/**/*.txt", "regex:ch.*"), List.of("*.png", "file2.txt"));
+        assertTrue(filter.accept("dir\\indir\\file1.txt"));
+        assertTrue(filter.accept("ch/a/b/"));
+        assertFalse(filter.accept("dir/file2.txt"));
+        assertFalse(filter.accept("ch/a/pic.png"));
+        assertFalse(filter.accept("file3.txt"));
+    }
+
+    @Test
+    public void testExtractStored() throws IOException {
+        Path input = input();
+        byte[] small = new byte[(int) ZipIndex.MAP_THRESHOLD + 1];
+        byte[] large = new byte[64 * 1024 * 1024 + 12345]; // crosses mapped region
+        Random random = new Random(1);
+        random.nextBytes(small);
+        random.nextBytes(large);
+        Files.write(input.resolve("small.mp4"), small);
+        Files.write(input.resolve("large.mp4"), large);
+        Path archive = zip("archive.zip", new ArchiveOptions(), input);
+        for (boolean verifyCrc : new boolean[]{true, false}) { // mapped and crc calculated / transferred as is
+            Path output = temp.resolve("output-" + verifyCrc);
+            try (ArchiveReader reader = ArchiveReader.open(archive)) {
+                assertEquals(ZipEntry.STORED, reader.getEntry("input/large.mp4").getMethod());
+                reader.extractTo(output, new ArchiveOptions().verifyCrc(verifyCrc).threads(2));
+            }
+            assertArrayEquals(small, Files.readAllBytes(output.resolve("input/small.mp4")));
+            assertArrayEquals(large, Files.readAllBytes(output.resolve("input/large.mp4")));
+        }
+        long offset;
+        try (ArchiveReader reader = ArchiveReader.open(archive)) {
+            offset = reader.getEntry("input/small.mp4").localHeaderOffset;
+        }
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) ~small[1000]}),
+                    offset + ZipFormat.LOCAL_HEADER_SIZE + "input/small.mp4".length() + 1000);
+        }
+        try (ArchiveReader reader = ArchiveReader.open(archive)) {
+            IOException e = assertThrows(IOException.class, () -> reader.extractTo(temp.resolve("damaged"),
+                    new ArchiveOptions().include("**small*")));
+            assertTrue(e.getMessage().contains("Invalid entry CRC"));
+        }
+    }
+
+    @Test
+    public void testFileTreeScanner() throws IOException {
+        Files.createDirectories(temp.resolve("tree/sub/inner"));
+        Files.createDirectory(temp.resolve("tree/empty"));
+        Files.writeString(temp.resolve("tree/a.txt"), "a".repeat(1000));
+        Files.writeString(temp.resolve("tree/sub/b.txt"), "b".repeat(2000));
+        Path single = Files.writeString(temp.resolve("c.txt"), "c".repeat(100));
+        Path emptyRoot = Files.createDirectory(temp.resolve("root"));
+        FileTreeScanner scanner = new FileTreeScanner();
+        List<String> names = new ArrayList<>();
+        scanner.scan(List.of(temp.resolve("tree").toFile(), single.toFile(), emptyRoot.toFile()),
+                file -> names.add(file.name + (file.directory ? "" : " " + file.size)));
+        names.sort(null);
+        // names are relative to parent of every provided path, only empty folders are reported
+        assertEquals(List.of("c.txt 100", "root/", Path.of("tree", "a.txt") + " 1000",
+                Path.of("tree", "empty") + "/", Path.of("tree", "sub", "b.txt") + " 2000",
+                Path.of("tree", "sub", "inner") + "/"), names);
+        assertEquals(3100, scanner.getTotalSize());
+        assertEquals(3, scanner.getFileCount());
+        assertTrue(Main.run(temp.resolve("tree").toString(), "-p", temp + File.separator, "tree"));
+        assertTrue(errContent.toString().contains("Total file size: 2 kB"));
+    }
+
+    @Test
+    public void testArchiveWriterAndReader() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ArchiveWriter writer = new ArchiveWriter(archive, new ArchiveOptions().threads(2))) {
+            writer.addEntry("dir/a.txt", 0, new ByteArrayInputStream("aaaaaaaaaa".getBytes()));
+            writer.addEntry("b.txt", 0, new ByteArrayInputStream("b".getBytes()));
+        }
+        Path zip = Files.write(temp.resolve("api.zip"), archive.toByteArray());
+        try (ArchiveReader reader = ArchiveReader.open(zip)) {
+            assertEquals(2, reader.entries().size());
+            assertEquals(10, reader.getEntry("dir/a.txt").getSize());
+            assertEquals("b", new String(reader.getInputStream("b.txt").readAllBytes()));
+        }
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        ArchiveMetrics metrics = new ArchiveMetrics();
+        ArchiveOptions options = new ArchiveOptions().metrics(metrics);
+        try (ArchiveWriter writer = new ArchiveWriter(new ByteArrayOutputStream(), options)) {
+            writer.addEntry("a.txt", 0, new ByteArrayInputStream(new byte[1000]));
+            writer.addEntry("b.txt", 0, new ByteArrayInputStream(new byte[1000]));
+        }
+        assertEquals(2, metrics.getEntries());
+        assertEquals(2000, metrics.getBytesRead());
+        assertTrue(metrics.getCompressionRatio() < 0.1);
+        assertTrue(metrics.getBytesWritten() > metrics.getCompressedSize());
+        assertTrue(metrics.toJson().contains("\"entries\": 2,"));
+    }
+
+    @Test
+    public void testZip64EntryCount() throws IOException {
+        Path zip = temp.resolve("zip64.zip");
+        try (ArchiveWriter writer = new ArchiveWriter(zip)) {
+            for (int i = 0; i < 70000; i++) {
+                writer.addEntry("dir/" + i + ".txt", 0, new ByteArrayInputStream(new byte[]{(byte) i}));
+            }
+        }
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertEquals(70000, zipFile.size());
+        }
+        try (ArchiveReader reader = ArchiveReader.open(zip)) {
+            assertEquals(70000, reader.entries().size());
+            assertEquals((byte) 69999, (byte) reader.getInputStream("dir/69999.txt").read());
+        }
+    }
+
+    @Test
+    public void testSmallEntryOfUnknownSize() throws IOException {
+        Path zip = temp.resolve("small.zip");
+        try (ArchiveWriter writer = new ArchiveWriter(zip)) {
+            writer.addEntry("small.txt", 0, new ByteArrayInputStream("small".getBytes()));
+        }
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(zip)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(ZipFormat.VERSION, header.getShort(4)); // readable without zip64 support
+        assertEquals(0, header.getShort(6) & ZipFormat.DATA_DESCRIPTOR_FLAG);
+        assertEquals(5, header.getInt(22));
+        assertEquals(0, header.getShort(28)); // no zip64 extra field
+    }
+
+    @Test
+    @Tag("slow") // writes and reads 4 GB entries several times
+    public void testZip64Sizes() throws IOException {
+        long size = 0x100000000L + 12345;
+        Path seekable = temp.resolve("seekable.zip");
+        try (ArchiveWriter writer = new ArchiveWriter(seekable, new ArchiveOptions().level(1))) {
+            writer.addEntry("large.bin", 0, zeros(size)); // size is unknown => sizes are written in data descriptor
+            writer.addEntry("small.txt", 0, new ByteArrayInputStream("small".getBytes()));
+        }
+        Path large = input().resolve("large.mp4"); // stored
+        try (RandomAccessFile file = new RandomAccessFile(large.toFile(), "rw")) {
+            file.setLength(size);
+        }
+        Path stream = temp.resolve("stream.zip"); // over 4 GB, but zeros take no space
+        try (ArchiveWriter writer = new ArchiveWriter(sparse(stream), new ArchiveOptions().level(1))) {
+            writer.add(large);
+            writer.addEntry("large.bin", 0, zeros(size)); // sizes are written in 8 bytes in data descriptor
+            writer.addEntry("small.txt", 0, new ByteArrayInputStream("small".getBytes())); // offset is over 4 GB
+        }
+        for (Path archive : List.of(seekable, stream)) {
+            try (ZipFile zipFile = new ZipFile(archive.toFile())) { // zip64 fields of central directory
+                assertEquals(size, zipFile.getEntry("large.bin").getSize());
+                assertEquals("small", new String(zipFile.getInputStream(zipFile.getEntry("small.txt")).readAllBytes()));
+            }
+            try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(archive))) { // local headers
+                ZipEntry entry;
+                while ((entry = zis.getNextEntry()) != null) {
+                    long length = zis.transferTo(OutputStream.nullOutputStream()); // crc is checked by stream
+                    assertEquals(entry.getName().equals("small.txt") ? 5 : size, length);
+                }
+            }
+        }
+        try (ArchiveReader reader = ArchiveReader.open(stream)) {
+            assertEquals(size, reader.getEntry("large.mp4").getSize());
+            assertEquals(size, reader.getEntry("large.bin").getSize());
+            assertEquals("small", new String(reader.getInputStream("small.txt").readAllBytes()));
+        }
+    }
+
+    @Test
+    public void testZipIndexCache() {
+        ZipIndexCache cache = new ZipIndexCache(5);
+        ZipIndex.Directory two = directory(2);
+        cache.put(Path.of("a.zip"), 0, 0, two);
+        cache.put(Path.of("b.zip"), 0, 0, directory(2));
+        cache.put(Path.of("big.zip"), 0, 0, directory(6)); // never cached
+        assertEquals(4, cache.getEntryCount());
+        assertEquals(two, cache.get(Path.of("a.zip"), 0, 0)); // b.zip is least recently used now
+        cache.put(Path.of("c.zip"), 0, 0, directory(3));
+        assertEquals(5, cache.getEntryCount());
+        assertEquals(two, cache.get(Path.of("a.zip"), 0, 0));
+        assertNull(cache.get(Path.of("b.zip"), 0, 0));
+        assertNull(cache.get(Path.of("big.zip"), 0, 0));
+    }
+
+    @Test
+    public void testPayloadCache() throws IOException {
+        Path input = input("text.txt", "text ".repeat(10000));
+        ArchiveMetrics metrics = new ArchiveMetrics();
+        ArchiveOptions options = new ArchiveOptions().cache(temp.resolve("cache"), 1024 * 1024).metrics(metrics);
+        Path first = zip("1.zip", options, input);
+        Path second = zip("2.zip", options, input);
+        assertEquals(1, metrics.getCacheMisses());
+        assertEquals(1, metrics.getCacheHits());
+        assertEquals(2 * 50000, metrics.getBytesRead()); // hashing is not counted as a separate read
+        assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+        try (ZipFile zipFile = new ZipFile(second.toFile())) {
+            assertEquals("text ".repeat(10000), new String(zipFile.getInputStream(zipFile.getEntry("input/text.txt"))
+                    .readAllBytes()));
+        }
+    }
+
+    @Test
+    public void testCompressionLevels() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) text.append(i % 7).append(' ').append(i % 13).append('\n');
+        Path input = input("text.txt", text.toString());
+        ArchiveMetrics fast = new ArchiveMetrics();
+        ArchiveMetrics best = new ArchiveMetrics();
+        zip("1.zip", new ArchiveOptions().level(1).metrics(fast), input);
+        zip("9.zip", new ArchiveOptions().level(9).metrics(best), input);
+        assertEquals(1, fast.getLevelEntries(1));
+        assertEquals(1, best.getLevelEntries(9));
+        assertTrue(best.getCompressedSize() < fast.getCompressedSize());
+        CompressionLevelController levels = new CompressionLevelController(new DeflateSettings(6, 0), Double.MAX_VALUE);
+        levels.completed(64 * 1024 * 1024); // target can't be reached => level is lowered
+        assertEquals(5, levels.next().level);
+        assertThrows(IllegalArgumentException.class, () -> new ArchiveOptions().level(10));
+    }
+
+    @Test
+    public void testReadAhead() throws IOException {
+        Path input = input();
+        for (int i = 0; i < 20; i++) Files.writeString(input.resolve(i + ".txt"), ("text " + i).repeat(i * 10000));
+        assertEquals(0, new ArchiveOptions().getReadAhead());
+        Path sequential = zip("0.zip", new ArchiveOptions(), input);
+        Path readAhead = zip("3.zip", new ArchiveOptions().readAhead(3), input);
+        assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(readAhead));
+    }
+
+    @Test
+    public void testLargeFile() throws IOException {
+        byte[] data = new byte[(int) EntryCompressor.LARGE_FILE_THRESHOLD + 12345];
+        Random random = new Random(1);
+        for (int i = 0; i < data.length; i++) data[i] = (byte) ('a' + random.nextInt(4));
+        Path input = input();
+        Files.write(input.resolve("large.txt"), data);
+        for (int threads : new int[]{1, 4}) { // deflated by one thread / by chunks in parallel
+            Path archive = zip(threads + ".zip", new ArchiveOptions().threads(threads), input);
+            try (ArchiveReader reader = ArchiveReader.open(archive)) {
+                assertEquals(ZipEntry.DEFLATED, reader.getEntry("input/large.txt").getMethod());
+                assertArrayEquals(data, reader.getInputStream("input/large.txt").readAllBytes());
+            }
+            try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(archive))) { // checks crc and sizes
+                assertEquals("input/large.txt", zis.getNextEntry().getName());
+                assertArrayEquals(data, zis.readAllBytes());
+            }
+        }
+        CRC32 first = new CRC32();
+        first.update(data, 0, 1000);
+        CRC32 second = new CRC32();
+        second.update(data, 1000, data.length - 1000);
+        CRC32 whole = new CRC32();
+        whole.update(data);
+        assertEquals(whole.getValue(), ChunkedDeflater.combine(first.getValue(), second.getValue(), data.length - 1000));
+    }
+
+    @Test
+    public void testUpdateArchive() throws IOException {
+        Path input = input("a.txt", "a");
+        Path archive = zip("archive.zip", new ArchiveOptions(), input);
+        boolean posix = Files.getFileAttributeView(archive, PosixFileAttributeView.class) != null;
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-rw-r--");
+        if (posix) Files.setPosixFilePermissions(archive, permissions);
+        input("b.txt", "b");
+        zip("archive.zip", new ArchiveOptions().update(true), input);
+        if (posix) assertEquals(permissions, Files.getPosixFilePermissions(archive));
+        byte[] updated = Files.readAllBytes(archive);
+        ArchiveWriter writer = new ArchiveWriter(archive, new ArchiveOptions().update(true));
+        assertThrows(IOException.class, () -> writer.add(temp.resolve("missing")));
+        writer.close(); // failed update is discarded
+        assertArrayEquals(updated, Files.readAllBytes(archive));
+        try (var files = Files.list(temp)) {
+            assertEquals(2, files.count()); // input and archive
+        }
+    }
+
+    @Test
+    public void testArchiveTest() throws IOException {
+        Path archive = zip("archive.zip", new ArchiveOptions(),
+                input("a.txt", "text a ".repeat(1000), "b.txt", "text b ".repeat(1000)));
+        try (ArchiveReader reader = ArchiveReader.open(archive)) {
+            assertEquals(0, reader.test(new ArchiveOptions().threads(2)));
+        }
+        byte[] bytes = Files.readAllBytes(archive);
+        int nameLength = bytes[26] & 0xff; // first entry is damaged
+        String damaged = new String(bytes, ZipFormat.LOCAL_HEADER_SIZE, nameLength, StandardCharsets.UTF_8);
+        bytes[ZipFormat.LOCAL_HEADER_SIZE + nameLength + 5] ^= 0x55;
+        Files.write(archive, bytes);
+        List<String> errors = new ArrayList<>();
+        try (ArchiveReader reader = ArchiveReader.open(archive)) {
+            assertEquals(1, reader.test(new ArchiveOptions().threads(2).listener(new ArchiveListener() {
+                @Override
+                public void tested(String name, String error) {
+                    if (error != null) errors.add(name);
+                }
+            })));
+        }
+        assertEquals(List.of(damaged), errors);
+    }
+
+    @Test
+    public void testSyncExtraction() throws IOException {
+        Path archive = zip("archive.zip", new ArchiveOptions(), input("a.txt", "text a", "b.txt", "text b"));
+        Path output = temp.resolve("output");
+        List<String> unpacked = new ArrayList<>();
+        ArchiveOptions options = new ArchiveOptions().sync(true).compareCrc(true).listener(new ArchiveListener() {
+            @Override
+            public void extracting(String name) {
+                unpacked.add(name);
+            }
+        });
+        try (ArchiveReader reader = ArchiveReader.open(archive)) {
+            reader.extractTo(output, options);
+            assertEquals(2, unpacked.size());
+            unpacked.clear();
+            reader.extractTo(output, options);
+            assertTrue(unpacked.isEmpty());
+            Path changed = output.resolve("input/b.txt");
+            FileTime time = Files.getLastModifiedTime(changed);
+            Files.writeString(changed, "text c"); // size and time are the same, crc is not
+            Files.setLastModifiedTime(changed, time);
+            reader.extractTo(output, options);
+        }
+        assertEquals(List.of("input/b.txt"), unpacked);
+        assertEquals("text b", Files.readString(output.resolve("input/b.txt")));
+        try (var files = Files.list(output)) {
+            assertEquals(1, files.count()); // journal is deleted
+        }
+    }
+
+    @Test
+    public void testSyncJournal() throws IOException {
+        Path archive = zip("archive.zip", new ArchiveOptions(), input("a.txt", "text a"));
+        List<ArchiveEntry> entries = List.of(new ArchiveEntry("a\nb", 0, 0, 1, 0, 0, 0, 0),
+                new ArchiveEntry("a\\nb\\", 0, 0, 2, 0, 0, 0, 0), new ArchiveEntry("c\td", 0, 0, 3, 0, 0, 0, 0));
+        try (SyncJournal journal = SyncJournal.open(temp, archive)) {
+            for (ArchiveEntry entry : entries) journal.unpacked(entry);
+        }
+        try (SyncJournal journal = SyncJournal.open(temp, archive)) { // continues interrupted extraction
+            for (ArchiveEntry entry : entries) assertTrue(journal.isUnpacked(entry), entry.name);
+            assertFalse(journal.isUnpacked(new ArchiveEntry("a", 0, 0, 1, 0, 0, 0, 0)));
+            journal.finish();
+        }
+        // journal is only kept when crc is compared
+        Path output = temp.resolve("output");
+        List<String> journals = new ArrayList<>();
+        try (ArchiveReader reader = ArchiveReader.open(archive)) {
+            reader.extractTo(output, new ArchiveOptions().sync(true).listener(new ArchiveListener() {
+                @Override
+                public void extracting(String name) {
+                    journals.add(String.valueOf(output.resolve(SyncJournal.PREFIX + "archive.zip.journal").toFile()
+                            .exists()));
+                }
+            }));
+        }
+        assertEquals(List.of("false"), journals);
+    }
+
+    @Test
+    public void testExtractionPlan() throws IOException {
+        Path archive = temp.resolve("archive.zip");
+        try (ArchiveWriter writer = new ArchiveWriter(archive)) {
+            writer.addEntry("a/b/c.txt", 0, new ByteArrayInputStream("c".repeat(1000).getBytes()));
+            writer.addEntry("a/d.txt", 0, new ByteArrayInputStream("d".getBytes()));
+            writer.addEntry("a/../../evil.txt", 0, new ByteArrayInputStream("evil".getBytes()));
+        }
+        Path output = temp.resolve("output");
+        try (ArchiveReader reader = ArchiveReader.open(archive)) {
+            assertThrows(IOException.class, () -> reader.extractTo(output, new ArchiveOptions()));
+            assertFalse(Files.exists(output.resolve("a"))); // nothing is created before names are checked
+            reader.extractTo(output, new ArchiveOptions().exclude("**evil*").preallocate(true));
+        }
+        assertEquals("c".repeat(1000), Files.readString(output.resolve("a/b/c.txt")));
+        assertEquals("d", Files.readString(output.resolve("a/d.txt")));
+        ExtractionPlan plan = new ExtractionPlan(output);
+        assertThrows(IOException.class, () -> plan.add("/etc/passwd/../../evil", false));
+        assertEquals(output.toRealPath().resolve("x/y"), plan.add("x/./y", false));
+        plan.createDirectories();
+        assertTrue(Files.isDirectory(output.resolve("x")));
+    }
+
+    @Test
+    public void testExtractDuplicates() throws IOException {
+        Path archive = temp.resolve("archive.zip");
+        try (ArchiveWriter writer = new ArchiveWriter(archive)) {
+            for (int i = 0; i < 20; i++) {
+                writer.addEntry("a.txt", 0, new ByteArrayInputStream(String.valueOf(i).repeat(100000).getBytes()));
+                writer.addEntry("./b.txt", 0, new ByteArrayInputStream(String.valueOf(i).getBytes()));
+                writer.addEntry("b.txt", 0, new ByteArrayInputStream(String.valueOf(-i).getBytes()));
+            }
+        }
+        List<String> unpacked = new ArrayList<>();
+        try (ArchiveReader reader = ArchiveReader.open(archive)) {
+            assertEquals(60, reader.extractTo(temp.resolve("output"), new ArchiveOptions().threads(4)
+                    .listener(new ArchiveListener() {
+                        @Override
+                        public void extracting(String name) {
+                            unpacked.add(name);
+                        }
+                    })));
+        }
+        assertEquals(List.of("a.txt", "b.txt"), unpacked); // the last entry of every file, like sequential unzip
+        assertEquals("19".repeat(100000), Files.readString(temp.resolve("output/a.txt")));
+        assertEquals("-19", Files.readString(temp.resolve("output/b.txt")));
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        Path input = input("text.txt", "text");
+        Path manifest = temp.resolve("jobs.txt");
+        Files.writeString(manifest, "# jobs\n"
+                + "\"" + input + "\" -p \"" + temp + File.separator + "\" first\n\n"
+                + "-q \"" + input + "\" -p '" + temp + File.separator + "' second\n"
+                + "\"" + temp.resolve("missing") + "\" -p \"" + temp + File.separator + "\" third\n");
+        assertFalse(Main.run("-batch", "-j", "2", manifest.toString()));
+        assertTrue(Files.exists(temp.resolve("first.zip")));
+        assertTrue(Files.exists(temp.resolve("second.zip")));
+        assertFalse(Files.exists(temp.resolve("third.zip")));
+        assertTrue(outContent.toString().contains("Job 3 (line 5) failed"));
+        assertTrue(errContent.toString().contains("Jobs failed: 1 of 3"));
+        assertEquals(List.of("-p", "a b", "c"), BatchRunner.tokenize("-p 'a b' \"c\"", 1));
+    }
+
+    @Test
+    public void testMerge() throws IOException {
+        Path input = input("a.txt", "first ".repeat(1000));
+        Path first = zip("first.zip", new ArchiveOptions(), input);
+        input("a.txt", "last ".repeat(1000), "b.txt", "b");
+        List<Path> archives = List.of(first, zip("last.zip", new ArchiveOptions(), input));
+        try (ArchiveWriter writer = new ArchiveWriter(temp.resolve("failed.zip"))) {
+            assertThrows(IOException.class, () -> writer.merge(archives));
+        }
+        assertFalse(Files.exists(temp.resolve("failed.zip"))); // partial archive is deleted
+        Files.writeString(temp.resolve("bundle.zip"), "bundle");
+        assertFalse(Main.run("-m", first.toString(), archives.get(1).toString(), "-p", temp + File.separator,
+                "bundle"));
+        assertEquals("bundle", Files.readString(temp.resolve("bundle.zip"))); // duplicate is found before writing
+        for (DuplicatePolicy policy : new DuplicatePolicy[]{DuplicatePolicy.FIRST, DuplicatePolicy.LAST}) {
+            Path merged = temp.resolve(policy + ".zip");
+            try (ArchiveWriter writer = new ArchiveWriter(merged, new ArchiveOptions().duplicates(policy))) {
+                writer.merge(archives);
+                assertEquals(1, writer.getDuplicateCount());
+            }
+            try (ArchiveReader reader = ArchiveReader.open(merged)) {
+                assertEquals(2, reader.entries().size());
+                assertEquals(0, reader.test(new ArchiveOptions()));
+                String a = new String(reader.getInputStream("input/a.txt").readAllBytes(), StandardCharsets.UTF_8);
+                assertEquals((policy == DuplicatePolicy.FIRST ? "first " : "last ").repeat(1000), a);
+            }
+        }
+        Path foreign = temp.resolve("foreign.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(foreign), Charset.forName("IBM437"))) {
+            zos.putNextEntry(new ZipEntry("caf\u00e9.txt")); // name is not flagged as utf-8
+            zos.write("cp437".getBytes());
+        }
+        Path merged = temp.resolve("foreign-merged.zip");
+        try (ArchiveWriter writer = new ArchiveWriter(merged)) {
+            writer.merge(List.of(foreign));
+        }
+        try (ZipFile zipFile = new ZipFile(merged.toFile(), Charset.forName("IBM437"))) { // name is copied as is
+            assertEquals("cp437", new String(zipFile.getInputStream(zipFile.getEntry("caf\u00e9.txt")).readAllBytes()));
+        }
+    }
+
+    @Test
+    public void testStreamArchive() throws IOException {
+        Path input = input("text.txt", "text ".repeat(10000));
+        byte[] random = new byte[100000];
+        new Random(1).nextBytes(random);
+        Files.write(input.resolve("random.bin"), random); // stored
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(messages);
+        assertTrue(Main.run(System.in, new PrintStream(archive), err, "-q", input.toString(), "-"));
+        assertTrue(messages.toString().contains("Process finished successfully"));
+        Path output = Files.createDirectory(temp.resolve("output"));
+        assertTrue(Main.run(new ByteArrayInputStream(archive.toByteArray()), System.out, err,
+                "-u", "-p", output.toString(), "-"));
+        assertEquals("text ".repeat(10000), Files.readString(output.resolve("input/text.txt")));
+        assertArrayEquals(random, Files.readAllBytes(output.resolve("input/random.bin")));
+        assertFalse(Main.run(System.in, System.out, err, "-l", "-"));
+    }
+
     @Test
     public void testUnzipNoNameProvided() {
         args = new String[]{"-u", "-p", pathToOutputs};